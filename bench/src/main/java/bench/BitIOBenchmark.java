@@ -0,0 +1,88 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BinaryOut.writeBits and BinaryIn.readBits with field widths spread like Huffman codes,
+ * without any coding around them. Scores are nanoseconds per field.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitIOBenchmark {
+    private static final int FIELDS = 1 << 16;
+
+    @Param({"4", "12", "24"})
+    public int maxWidth; //fields are 1 to maxWidth bits wide
+
+    private final int[] widths = new int[FIELDS];
+    private final long[] values = new long[FIELDS];
+    private byte[] written;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        long bits = 0;
+        for (int i = 0; i < FIELDS; i++) {
+            widths[i] = 1 + random.nextInt(maxWidth);
+            values[i] = random.nextLong() & ((1L << widths[i]) - 1);
+            bits += widths[i];
+        }
+        written = new byte[(int) ((bits + 7) / 8)];
+        Object out = Codec.binaryOut(new OutputStream() {
+            private int count;
+
+            @Override
+            public void write(int b) {
+                written[count++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                System.arraycopy(b, off, written, count, len);
+                count += len;
+            }
+        });
+        for (int i = 0; i < FIELDS; i++)
+            Codec.writeBits(out, values[i], widths[i]);
+        Codec.flush(out);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FIELDS)
+    public Object writeBits() {
+        Object out = Codec.binaryOut(OutputStream.nullOutputStream());
+        for (int i = 0; i < FIELDS; i++)
+            Codec.writeBits(out, values[i], widths[i]);
+        Codec.flush(out);
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FIELDS)
+    public int readBits() {
+        Object in = Codec.binaryIn(written, 0, written.length);
+        int sum = 0;
+        for (int i = 0; i < FIELDS; i++)
+            sum += Codec.readBits(in, widths[i]);
+        return sum;
+    }
+}
@@ -0,0 +1,219 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Handles on the codec classes. They live in the unnamed package, which code in a named
+ * package cannot import and JMH does not accept benchmarks in, so they are reached through
+ * method handles instead. The handles are constants, which the JIT inlines like direct calls.
+ */
+final class Codec {
+    private static final MethodHandle NEW_HISTOGRAM;
+    private static final MethodHandle HISTOGRAM_ADD;
+    private static final MethodHandle HISTOGRAM_COUNTS;
+    private static final MethodHandle NEW_CODE_LENGTHS;
+    private static final MethodHandle CODE_LENGTHS_COMPUTE;
+    private static final MethodHandle NEW_CANONICAL_CODE;
+    private static final MethodHandle CANONICAL_CODES;
+    private static final MethodHandle CANONICAL_LENGTHS;
+    private static final MethodHandle ENCODE_FRAME;
+    private static final MethodHandle NEW_DECODER;
+    private static final MethodHandle DECODE_FRAME;
+    private static final MethodHandle NEW_BINARY_OUT;
+    private static final MethodHandle WRITE_BITS;
+    private static final MethodHandle FLUSH;
+    private static final MethodHandle NEW_BINARY_IN;
+    private static final MethodHandle READ_BITS;
+
+    static {
+        try {
+            Class<?> histogram = Class.forName("Histogram");
+            Class<?> codeLengths = Class.forName("CodeLengths");
+            Class<?> canonicalCode = Class.forName("CanonicalCode");
+            Class<?> codec = Class.forName("HuffmanCodec");
+            Class<?> decoder = Class.forName("HuffmanDecoder");
+            Class<?> binaryOut = Class.forName("BinaryOut");
+            Class<?> binaryIn = Class.forName("BinaryIn");
+
+            NEW_HISTOGRAM = constructor(histogram, methodType(void.class));
+            HISTOGRAM_ADD = virtual(histogram, "add", methodType(void.class, byte[].class, int.class, int.class));
+            HISTOGRAM_COUNTS = virtual(histogram, "counts", methodType(long[].class));
+            NEW_CODE_LENGTHS = constructor(codeLengths, methodType(void.class));
+            CODE_LENGTHS_COMPUTE = virtual(codeLengths, "compute", methodType(int.class, long[].class, int[].class));
+            NEW_CANONICAL_CODE = constructor(canonicalCode, methodType(void.class, int[].class));
+            CANONICAL_CODES = virtual(canonicalCode, "codes", methodType(long[].class));
+            CANONICAL_LENGTHS = virtual(canonicalCode, "lengths", methodType(int[].class));
+            ENCODE_FRAME = generic(lookup(codec).findStatic(codec, "encodeFrame",
+                    methodType(long.class, ByteBuffer.class, canonicalCode, ByteBuffer.class, int.class)));
+            NEW_DECODER = constructor(decoder, methodType(void.class, long[].class, int[].class));
+            DECODE_FRAME = generic(lookup(codec).findStatic(codec, "decodeFrame",
+                    methodType(void.class, ByteBuffer.class, decoder, ByteBuffer.class, int.class)));
+            NEW_BINARY_OUT = constructor(binaryOut, methodType(void.class, OutputStream.class));
+            WRITE_BITS = virtual(binaryOut, "writeBits", methodType(void.class, long.class, int.class));
+            FLUSH = virtual(binaryOut, "flush", methodType(void.class));
+            NEW_BINARY_IN = constructor(binaryIn, methodType(void.class, InputStream.class));
+            READ_BITS = virtual(binaryIn, "readBits", methodType(int.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Codec() {
+    }
+
+    private static MethodHandles.Lookup lookup(Class<?> type) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+    }
+
+    private static MethodHandle constructor(Class<?> type, MethodType signature) throws ReflectiveOperationException {
+        return generic(lookup(type).findConstructor(type, signature));
+    }
+
+    private static MethodHandle virtual(Class<?> type, String name, MethodType signature) throws ReflectiveOperationException {
+        return generic(lookup(type).findVirtual(type, name, signature));
+    }
+
+    //Replace every type from the unnamed package with Object, so the handle can be called from here
+    private static MethodHandle generic(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++)
+            type = type.changeParameterType(i, nameable(type.parameterType(i)));
+        return handle.asType(type.changeReturnType(nameable(type.returnType())));
+    }
+
+    private static Class<?> nameable(Class<?> type) {
+        return !type.isPrimitive() && !type.isArray() && type.getPackageName().isEmpty() ? Object.class : type;
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException)
+            return (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+        return new IllegalStateException(t);
+    }
+
+    static long[] histogram(byte[] bytes, int offset, int length) {
+        try {
+            Object histogram = (Object) NEW_HISTOGRAM.invokeExact();
+            HISTOGRAM_ADD.invokeExact(histogram, bytes, offset, length);
+            return (long[]) HISTOGRAM_COUNTS.invokeExact(histogram);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newCodeLengths() {
+        try {
+            return (Object) NEW_CODE_LENGTHS.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int computeLengths(Object codeLengths, long[] frequency, int[] lengths) {
+        try {
+            return (int) CODE_LENGTHS_COMPUTE.invokeExact(codeLengths, frequency, lengths);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object canonicalCode(int[] lengths) {
+        try {
+            return (Object) NEW_CANONICAL_CODE.invokeExact(lengths);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static long[] codes(Object canonicalCode) {
+        try {
+            return (long[]) CANONICAL_CODES.invokeExact(canonicalCode);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int[] lengths(Object canonicalCode) {
+        try {
+            return (int[]) CANONICAL_LENGTHS.invokeExact(canonicalCode);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    //Encode the remaining bytes of block as one frame of 1 or 4 streams at output's position
+    static long encodeFrame(ByteBuffer block, Object canonicalCode, ByteBuffer output, int streams) {
+        try {
+            return (long) ENCODE_FRAME.invokeExact(block, canonicalCode, output, streams);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object decoder(Object canonicalCode) {
+        try {
+            return (Object) NEW_DECODER.invokeExact(codes(canonicalCode), lengths(canonicalCode));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    //Check the frame at encoded's position and decode it into output at its position
+    static void decodeFrame(ByteBuffer encoded, Object decoder, ByteBuffer output, int streams) {
+        try {
+            DECODE_FRAME.invokeExact(encoded, decoder, output, streams);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object binaryOut(OutputStream out) {
+        try {
+            return (Object) NEW_BINARY_OUT.invokeExact(out);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void writeBits(Object out, long x, int r) {
+        try {
+            WRITE_BITS.invokeExact(out, x, r);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void flush(Object out) {
+        try {
+            FLUSH.invokeExact(out);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object binaryIn(byte[] bytes, int offset, int length) {
+        try {
+            return (Object) NEW_BINARY_IN.invokeExact((InputStream) new ByteArrayInputStream(bytes, offset, length));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int readBits(Object in, int r) {
+        try {
+            return (int) READ_BITS.invokeExact(in, r);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+}
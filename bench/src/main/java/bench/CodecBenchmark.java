@@ -0,0 +1,98 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-block work of compression and decompression on one thread: counting
+ * (scanFrequency), encoding and decoding frames. Inputs larger than a block are
+ * processed in 1M blocks like the file codec does.
+ *
+ * Scores are milliseconds per input; MB/s is size / score.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CodecBenchmark {
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    @Param({"random", "english", "zeros", "compressed"})
+    public String kind;
+
+    @Param({"1K", "64K", "1M", "64M", "1G"})
+    public String size;
+
+    //bitstreams per frame, 4 lets the decoder work on independent streams at once
+    @Param({"1", "4"})
+    public int streams;
+
+    private byte[] input;
+    private Object code;
+    private Object decoder;
+    private ByteBuffer encoded;
+    private ByteBuffer output;
+
+    @Setup
+    public void setup() {
+        input = Inputs.generate(kind, Inputs.parseSize(size));
+        int[] lengths = new int[256];
+        Codec.computeLengths(Codec.newCodeLengths(), Codec.histogram(input, 0, input.length), lengths);
+        code = Codec.canonicalCode(lengths);
+        decoder = Codec.decoder(code);
+
+        //frames back to back, each a little over its block at worst
+        encoded = ByteBuffer.allocate(input.length + input.length / 2 + 64 * blocks());
+        for (int i = 0; i < blocks(); i++)
+            Codec.encodeFrame(block(i), code, encoded, streams);
+        encoded.flip();
+        output = ByteBuffer.allocate(input.length);
+    }
+
+    private int blocks() {
+        return (input.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    private ByteBuffer block(int i) {
+        int start = i * BLOCK_SIZE;
+        return ByteBuffer.wrap(input, start, Math.min(BLOCK_SIZE, input.length - start)).slice();
+    }
+
+    @Benchmark
+    public void histogram(Blackhole blackhole) {
+        for (int start = 0; start < input.length; start += BLOCK_SIZE)
+            blackhole.consume(Codec.histogram(input, start, Math.min(BLOCK_SIZE, input.length - start)));
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        ByteBuffer frames = encoded.duplicate().clear();
+        for (int i = 0; i < blocks(); i++)
+            Codec.encodeFrame(block(i), code, frames, streams);
+        return frames;
+    }
+
+    @Benchmark
+    public ByteBuffer decode() {
+        ByteBuffer frames = encoded.duplicate();
+        output.clear();
+        for (int i = 0; i < blocks(); i++)
+            Codec.decodeFrame(frames, decoder, output, streams);
+        return output;
+    }
+}
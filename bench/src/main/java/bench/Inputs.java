@@ -0,0 +1,108 @@
+package bench;
+
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Benchmark inputs. Every kind is generated from a fixed seed, so runs are comparable.
+ */
+final class Inputs {
+    //Most common English words, in order of frequency
+    private static final String[] WORDS = ("the of and to a in is you that it he was for on are as with his they I "
+            + "at be this have from or one had by word but not what all were we when your can said there use an "
+            + "each which she do how their if will up other about out many then them these so some her would make "
+            + "like him into time has look two more write go see number no way could people my than first water "
+            + "been call who oil its now find long down day did get come made may part").split(" ");
+
+    private Inputs() {
+    }
+
+    static byte[] generate(String kind, int size) {
+        switch (kind) {
+            case "random":
+                return random(size);
+            case "english":
+                return english(size, new Random(1));
+            case "zeros":
+                return zeros(size);
+            case "compressed":
+                return compressed(size);
+            default:
+                throw new IllegalArgumentException("Unknown input kind " + kind);
+        }
+    }
+
+    //Parse a byte count with an optional K, M or G suffix, e.g. 64K
+    static int parseSize(String size) {
+        String upper = size.toUpperCase();
+        long scale = 1;
+        if (upper.endsWith("K"))
+            scale = 1 << 10;
+        else if (upper.endsWith("M"))
+            scale = 1 << 20;
+        else if (upper.endsWith("G"))
+            scale = 1 << 30;
+        long bytes = Long.parseLong(scale == 1 ? upper : upper.substring(0, upper.length() - 1)) * scale;
+        if (bytes > 1 << 30)
+            throw new IllegalArgumentException("Inputs are limited to 1G, not " + size);
+        return (int) bytes;
+    }
+
+    //Uniformly random bytes, where Huffman coding cannot gain anything
+    private static byte[] random(int size) {
+        byte[] bytes = new byte[size];
+        new Random(1).nextBytes(bytes);
+        return bytes;
+    }
+
+    //Words drawn with Zipf frequencies, in sentences and lines
+    private static byte[] english(int size, Random random) {
+        byte[] bytes = new byte[size];
+        int i = 0;
+        int line = 0;
+        boolean capital = true;
+        while (i < size) {
+            //rank r is drawn with probability about 1 / r
+            int rank = (int) Math.exp(random.nextDouble() * Math.log(WORDS.length + 1)) - 1;
+            String word = WORDS[Math.min(rank, WORDS.length - 1)];
+            for (int c = 0; c < word.length() && i < size; c++, line++)
+                bytes[i++] = (byte) (capital && c == 0 ? Character.toUpperCase(word.charAt(c)) : word.charAt(c));
+            capital = false;
+            if (i < size && random.nextInt(12) == 0) {
+                bytes[i++] = (byte) (random.nextInt(3) == 0 ? ',' : '.');
+                capital = bytes[i - 1] == '.';
+            }
+            if (i < size) {
+                bytes[i++] = (byte) (line > 72 ? '\n' : ' ');
+                line = line > 72 ? 0 : line + 1;
+            }
+        }
+        return bytes;
+    }
+
+    //Mostly zeros with a few random bytes, like sparse binary data
+    private static byte[] zeros(int size) {
+        byte[] bytes = new byte[size];
+        Random random = new Random(1);
+        for (int i = 0; i < size; i++) {
+            if (random.nextInt(10) == 0)
+                bytes[i] = (byte) random.nextInt(256);
+        }
+        return bytes;
+    }
+
+    //English text run through Deflater, so already close to incompressible
+    private static byte[] compressed(int size) {
+        byte[] bytes = new byte[size];
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        Random random = new Random(1);
+        int i = 0;
+        while (i < size) {
+            if (deflater.needsInput())
+                deflater.setInput(english(1 << 16, random));
+            i += deflater.deflate(bytes, i, size - i, Deflater.SYNC_FLUSH);
+        }
+        deflater.end();
+        return bytes;
+    }
+}
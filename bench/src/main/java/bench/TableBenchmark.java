@@ -0,0 +1,62 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the code from a histogram, which happens once per file and, with per-block
+ * tables, once per block: the code lengths (the Huffman tree), the canonical codes and
+ * the decode table.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableBenchmark {
+    @Param({"random", "english", "zeros", "compressed"})
+    public String kind;
+
+    private long[] frequency;
+    private final int[] lengths = new int[256];
+    private Object codeLengths;
+    private Object code;
+
+    @Setup
+    public void setup() {
+        byte[] input = Inputs.generate(kind, 1 << 20);
+        frequency = Codec.histogram(input, 0, input.length);
+        codeLengths = Codec.newCodeLengths();
+        Codec.computeLengths(codeLengths, frequency, lengths);
+        code = Codec.canonicalCode(lengths);
+    }
+
+    @Benchmark
+    public int[] codeLengths() {
+        Codec.computeLengths(codeLengths, frequency, lengths);
+        return lengths;
+    }
+
+    @Benchmark
+    public Object canonicalCode() {
+        Codec.computeLengths(codeLengths, frequency, lengths);
+        return Codec.canonicalCode(lengths);
+    }
+
+    @Benchmark
+    public Object decodeTable() {
+        return Codec.decoder(code);
+    }
+}
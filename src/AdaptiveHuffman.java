@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Single pass adaptive Huffman coding (FGK). Encoder and decoder start from the same
+ * tree holding only the NYT (not yet transmitted) leaf and update it identically after
+ * every symbol, so no frequency table is stored and output can be written as soon as
+ * input arrives. This makes it usable on pipes and other streams that cannot be read twice.
+ *
+ * A symbol seen for the first time is sent as the NYT code followed by its value in
+ * 9 bits. The value 256 after NYT marks the end of the stream.
+ *
+ * Nodes live in arrays indexed by their order number: weights never decrease with the
+ * index and the root has the highest one (the sibling property).
+ */
+class AdaptiveHuffman {
+    static final byte[] MAGIC = {'H', 'U', 'F', 'A'};
+
+    private static final int END = 256;
+    private static final int SYMBOL_BITS = 9;
+    private static final int NODES = 2 * (END + 1) - 1;
+    private static final int ROOT = NODES - 1;
+    private static final int INTERNAL = -1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final long[] weight = new long[NODES];
+    private final int[] parent = new int[NODES];
+    private final int[] left = new int[NODES]; //children of internal nodes
+    private final int[] right = new int[NODES];
+    private final int[] symbol = new int[NODES]; //symbol of a leaf, INTERNAL otherwise
+    private final int[] leaf = new int[END]; //node of each symbol, -1 if not yet seen
+    private int nyt = ROOT;
+    private final int[] path = new int[NODES]; //bits from a leaf up to the root
+
+    AdaptiveHuffman() {
+        Arrays.fill(leaf, -1);
+        parent[ROOT] = -1;
+        symbol[ROOT] = END; //the NYT leaf carries END, which is never a real symbol
+    }
+
+    private void encodeSymbol(int s, BinaryOut out) {
+        int node = s == END ? -1 : leaf[s];
+        boolean seen = node >= 0;
+        if (!seen)
+            node = nyt;
+
+        int depth = 0;
+        for (; node != ROOT; node = parent[node])
+            path[depth++] = right[parent[node]] == node ? 1 : 0;
+        while (depth > 0) { //root side first, up to 64 bits per write
+            int r = Math.min(depth, 64);
+            long bits = 0;
+            for (int i = 0; i < r; i++)
+                bits = (bits << 1) | path[--depth];
+            out.writeBits(bits, r);
+        }
+        if (!seen)
+            out.writeBits(s, SYMBOL_BITS);
+    }
+
+    private void update(int s) {
+        int node = leaf[s];
+        if (node < 0) {
+            //the NYT leaf becomes an internal node with a new NYT and the new symbol below it
+            int old = nyt;
+            nyt = old - 2;
+            node = old - 1;
+            left[old] = nyt;
+            right[old] = node;
+            symbol[old] = INTERNAL;
+            parent[nyt] = old;
+            parent[node] = old;
+            symbol[nyt] = END;
+            symbol[node] = s;
+            leaf[s] = node;
+        }
+        while (node >= 0) {
+            //move to the highest numbered node of equal weight before incrementing
+            int leader = node;
+            while (leader < ROOT && weight[leader + 1] == weight[node])
+                leader++;
+            if (leader != node && leader != parent[node]) {
+                swap(node, leader);
+                node = leader;
+            }
+            weight[node]++;
+            node = parent[node];
+        }
+    }
+
+    //Exchange the subtrees at order numbers a and b, which have the same weight
+    private void swap(int a, int b) {
+        int t = left[a]; left[a] = left[b]; left[b] = t;
+        t = right[a]; right[a] = right[b]; right[b] = t;
+        t = symbol[a]; symbol[a] = symbol[b]; symbol[b] = t;
+        relink(a);
+        relink(b);
+    }
+
+    //Point the children, or the symbol, at node again after its contents moved there
+    private void relink(int node) {
+        if (symbol[node] == INTERNAL) {
+            parent[left[node]] = node;
+            parent[right[node]] = node;
+        }
+        else if (symbol[node] == END)
+            nyt = node;
+        else
+            leaf[symbol[node]] = node;
+    }
+
+    /**
+     * Encodes in until its end, writing every complete output byte as soon as the
+     * input read so far has been coded.
+     */
+    void encode(InputStream in, OutputStream os) throws IOException {
+        os.write(MAGIC);
+        BinaryOut out = new BinaryOut(os);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            int n = in.read(buffer);
+            while (n != -1) {
+                for (int i = 0; i < n; i++) {
+                    int s = buffer[i] & 0xFF;
+                    encodeSymbol(s, out);
+                    update(s);
+                }
+                out.flushWholeBytes();
+                n = in.read(buffer);
+            }
+            encodeSymbol(END, out);
+            out.flush();
+        } catch (UncheckedIOException e) { //a write to os failed
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Decodes in until the end marker. Decoded bytes are written out whenever the
+     * decoder would otherwise have to wait for more input.
+     */
+    void decode(InputStream is, OutputStream out) throws IOException {
+        for (byte b : MAGIC) {
+            if (is.read() != b)
+                throw new IOException("Not an adaptive Huffman stream");
+        }
+        BinaryIn in = new BinaryIn(is);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count = 0;
+        while (true) {
+            int node = ROOT;
+            while (symbol[node] == INTERNAL) {
+                if (in.bufferedBits() == 0 && count > 0) { //about to block, pass on what we have
+                    out.write(buffer, 0, count);
+                    out.flush();
+                    count = 0;
+                }
+                node = in.readBoolean() ? right[node] : left[node];
+            }
+            int s = symbol[node];
+            if (s == END) {
+                if (in.bufferedBits() < SYMBOL_BITS && count > 0) {
+                    out.write(buffer, 0, count);
+                    out.flush();
+                    count = 0;
+                }
+                s = in.readBits(SYMBOL_BITS);
+                if (s == END)
+                    break;
+                if (s > END) //only bytes and END are ever escaped
+                    throw new IOException("Corrupt stream");
+            }
+            buffer[count++] = (byte) s;
+            update(s);
+            if (count == buffer.length) {
+                out.write(buffer, 0, count);
+                count = 0;
+            }
+        }
+        out.write(buffer, 0, count);
+        out.flush();
+    }
+}
@@ -5,19 +5,24 @@
  *  
  *  This library is for reading binary data from an input stream.
  *
+ *  Bits are served from a 64-bit buffer that is refilled from a large
+ *  byte array, so the underlying stream is only read in big chunks.
+ *
  *  % java BinaryIn https://introcs.cs.princeton.edu/cover.jpg output.jpg
  *
  ******************************************************************************/
 
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.net.Socket;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteOrder;
 import java.util.NoSuchElementException;
 
 /**
@@ -43,18 +48,24 @@ import java.util.NoSuchElementException;
  *  @author Kevin Wayne
  */
 public final class BinaryIn {
-    private static final int EOF = -1;   // end of file
+    private static final int CHUNK_SIZE = 1 << 16;   // bytes read from the stream at a time
+    private static final VarHandle LONG_BE =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
 
-    private BufferedInputStream in;      // the input stream
-    private int buffer;                  // one character buffer
+    private InputStream in;              // the input stream
+    private long buffer;                 // bits not yet read, next bit is the most significant
     private int n;                       // number of bits left in buffer
+    private final byte[] bytes;          // bytes read from in
+    private int position;                // next byte of bytes to move into buffer
+    private int limit;                   // number of valid bytes in bytes
+    private boolean eof;                 // in has been read to the end
 
    /**
      * Initializes a binary input stream from standard input.
      */
     public BinaryIn() {
-        in = new BufferedInputStream(System.in);
-        fillBuffer();
+        bytes = new byte[CHUNK_SIZE];
+        in = System.in;
     }
 
    /**
@@ -63,8 +74,22 @@ public final class BinaryIn {
      * @param is the {@code InputStream} object
      */
     public BinaryIn(InputStream is) {
-        in = new BufferedInputStream(is);
-        fillBuffer();
+        bytes = new byte[CHUNK_SIZE];
+        in = is;
+    }
+
+   /**
+     * Initializes a binary input stream from an {@code InputStream} that reads into
+     * {@code buffer} instead of an array of its own, so a short-lived stream can reuse one.
+     *
+     * @param is the {@code InputStream} object
+     * @param buffer at least 1 byte, used by nothing else while this stream is read
+     * @throws IllegalArgumentException if {@code buffer} is empty
+     */
+    public BinaryIn(InputStream is, byte[] buffer) {
+        if (buffer.length == 0) throw new IllegalArgumentException("Empty buffer");
+        bytes = buffer;
+        in = is;
     }
 
    /**
@@ -73,10 +98,9 @@ public final class BinaryIn {
      * @param socket the socket
      */
     public BinaryIn(Socket socket) {
+        bytes = new byte[CHUNK_SIZE];
         try {
-            InputStream is = socket.getInputStream();
-            in = new BufferedInputStream(is);
-            fillBuffer();
+            in = socket.getInputStream();
         }
         catch (IOException ioe) {
             System.err.println("Could not open " + socket);
@@ -89,11 +113,10 @@ public final class BinaryIn {
      * @param url the URL
      */
     public BinaryIn(URL url) {
+        bytes = new byte[CHUNK_SIZE];
         try {
             URLConnection site = url.openConnection();
-            InputStream is     = site.getInputStream();
-            in = new BufferedInputStream(is);
-            fillBuffer();
+            in = site.getInputStream();
         }
         catch (IOException ioe) {
             System.err.println("Could not open " + url);
@@ -106,14 +129,13 @@ public final class BinaryIn {
      * @param name the name of the file or URL
      */
     public BinaryIn(String name) {
+        bytes = new byte[CHUNK_SIZE];
 
         try {
             // first try to read file from local file system
             File file = new File(name);
             if (file.exists()) {
-                FileInputStream fis = new FileInputStream(file);
-                in = new BufferedInputStream(fis);
-                fillBuffer();
+                in = new FileInputStream(file);
                 return;
             }
 
@@ -126,24 +148,44 @@ public final class BinaryIn {
             }
 
             URLConnection site = url.openConnection();
-            InputStream is     = site.getInputStream();
-            in = new BufferedInputStream(is);
-            fillBuffer();
+            in = site.getInputStream();
         }
         catch (IOException ioe) {
             System.err.println("Could not open " + name);
         }
     }
 
-    private void fillBuffer() {
-        try {
-            buffer = in.read();
-            n = 8;
+    // top up buffer to at least 56 bits from bytes already read, only blocking
+    // on the stream while fewer than need bits are buffered
+    private void fillBuffer(int need) {
+        // fast path: move as many whole bytes as fit with a single 8 byte load
+        if (limit - position >= 8) {
+            int k = (63 - n) >>> 3;
+            long word = (long) LONG_BE.get(bytes, position) & (-1L << (64 - 8 * k));
+            buffer |= word >>> n;
+            position += k;
+            n += 8 * k;
+            return;
         }
-        catch (IOException e) {
-            System.err.println("EOF");
-            buffer = EOF;
-            n = -1;
+        while (n <= 56) {
+            if (position == limit) {
+                if (eof || n >= need) return;
+                try {
+                    limit = in.read(bytes, 0, bytes.length);
+                }
+                catch (IOException e) {
+                    System.err.println("EOF");
+                    limit = -1;
+                }
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    eof = true;
+                    return;
+                }
+            }
+            buffer |= (bytes[position++] & 0xffL) << (56 - n);
+            n += 8;
         }
     }
 
@@ -164,7 +206,74 @@ public final class BinaryIn {
      *         {@code false} otherwise
      */
     public boolean isEmpty() {
-        return buffer == EOF;
+        if (n == 0) fillBuffer(1);
+        return n == 0;
+    }
+
+   /**
+     * Returns true if at least r more bits can be read from this binary input stream.
+     *
+     * @param  r number of bits
+     * @return {@code true} if at least {@code r} bits are left;
+     *         {@code false} otherwise
+     */
+    public boolean hasBits(int r) {
+        if (n < r) fillBuffer(r);
+        return n >= r;
+    }
+
+   /**
+     * Returns the number of bits that can be read without waiting on the underlying stream.
+     *
+     * @return the number of bits already read from the stream but not yet consumed
+     */
+    public int bufferedBits() {
+        return n + 8 * (limit - position);
+    }
+
+   /**
+     * Returns the next r bits of this binary input stream as an r-bit int
+     * without consuming them. Bits past the end of the stream read as 0.
+     *
+     * @param  r number of bits to look at
+     * @return the next {@code r} bits of data from this binary input stream as an {@code int}
+     * @throws IllegalArgumentException unless {@code 1 <= r <= 32}
+     */
+    public int peekBits(int r) {
+        if (r < 1 || r > 32) throw new IllegalArgumentException("Illegal value of r = " + r);
+        if (n < r) fillBuffer(r);
+        return (int) (buffer >>> (64 - r));
+    }
+
+   /**
+     * Consumes the next r bits of this binary input stream.
+     *
+     * @param  r number of bits to skip
+     * @throws NoSuchElementException if there are fewer than {@code r} bits available
+     * @throws IllegalArgumentException unless {@code 1 <= r <= 32}
+     */
+    public void skipBits(int r) {
+        if (r < 1 || r > 32) throw new IllegalArgumentException("Illegal value of r = " + r);
+        if (n < r) {
+            fillBuffer(r);
+            if (n < r) throw new NoSuchElementException("Reading from empty input stream");
+        }
+        buffer <<= r;
+        n -= r;
+    }
+
+   /**
+     * Reads the next r bits from this binary input stream and return as an r-bit int.
+     *
+     * @param  r number of bits to read
+     * @return the next {@code r} bits of data from this binary input stream as an {@code int}
+     * @throws NoSuchElementException if there are fewer than {@code r} bits available
+     * @throws IllegalArgumentException unless {@code 1 <= r <= 32}
+     */
+    public int readBits(int r) {
+        int x = peekBits(r);
+        skipBits(r);
+        return x;
     }
 
    /**
@@ -174,10 +283,7 @@ f     *
      */
     public boolean readBoolean() {
         if (isEmpty()) throw new NoSuchElementException("Reading from empty input stream");
-        n--;
-        boolean bit = ((buffer >> n) & 1) == 1;
-        if (n == 0) fillBuffer();
-        return bit;
+        return readBits(1) == 1;
     }
 
    /**
@@ -188,25 +294,7 @@ f     *
      */
     public char readChar() {
         if (isEmpty()) throw new NoSuchElementException("Reading from empty input stream");
-
-        // special case when aligned byte
-        if (n == 8) {
-            int x = buffer;
-            fillBuffer();
-            return (char) (x & 0xff);
-        }
-
-        // combine last N bits of current buffer with first 8-N bits of new buffer
-        int x = buffer;
-        x <<= (8 - n);
-        int oldN = n;
-        fillBuffer();
-        if (isEmpty()) throw new NoSuchElementException("Reading from empty input stream");
-        n = oldN;
-        x |= (buffer >>> n);
-        return (char) (x & 0xff);
-        // the above code doesn't quite work for the last character if N = 8
-        // because buffer will be -1
+        return (char) readBits(8);
     }
 
 
@@ -221,16 +309,7 @@ f     *
     public char readChar(int r) {
         if (r < 1 || r > 16) throw new IllegalArgumentException("Illegal value of r = " + r);
 
-        // optimize r = 8 case
-        if (r == 8) return readChar();
-
-        char x = 0;
-        for (int i = 0; i < r; i++) {
-            x <<= 1;
-            boolean bit = readBoolean();
-            if (bit) x |= 1;
-        }
-        return x;
+        return (char) readBits(r);
     }
 
 
@@ -260,13 +339,7 @@ f     *
      * @throws NoSuchElementException if there are fewer than 16 bits available
      */
     public short readShort() {
-        short x = 0;
-        for (int i = 0; i < 2; i++) {
-            char c = readChar();
-            x <<= 8;
-            x |= c;
-        }
-        return x;
+        return (short) readBits(16);
     }
 
    /**
@@ -276,13 +349,7 @@ f     *
      * @throws NoSuchElementException if there are fewer than 32 bits available
      */
     public int readInt() {
-        int x = 0;
-        for (int i = 0; i < 4; i++) {
-            char c = readChar();
-            x <<= 8;
-            x |= c;
-        }
-        return x;
+        return readBits(32);
     }
 
    /**
@@ -296,16 +363,7 @@ f     *
     public int readInt(int r) {
         if (r < 1 || r > 32) throw new IllegalArgumentException("Illegal value of r = " + r);
 
-        // optimize r = 32 case
-        if (r == 32) return readInt();
-
-        int x = 0;
-        for (int i = 0; i < r; i++) {
-            x <<= 1;
-            boolean bit = readBoolean();
-            if (bit) x |= 1;
-        }
-        return x;
+        return readBits(r);
     }
 
    /**
@@ -315,13 +373,8 @@ f     *
      * @throws NoSuchElementException if there are fewer than 64 bits available
      */
     public long readLong() {
-        long x = 0;
-        for (int i = 0; i < 8; i++) {
-            char c = readChar();
-            x <<= 8;
-            x |= c;
-        }
-        return x;
+        long x = readBits(32) & 0xffffffffL;
+        return (x << 32) | (readBits(32) & 0xffffffffL);
     }
 
    /**
@@ -345,6 +398,49 @@ f     *
     }
 
 
+   /**
+     * Reads the next {@code length} bytes from this binary input stream into {@code x}.
+     * When the stream is at a byte boundary the bytes are copied in bulk, and large reads
+     * go straight from the underlying stream into {@code x}.
+     *
+     * @param  x the array to read into
+     * @param  offset the index in {@code x} of the first byte read
+     * @param  length the number of bytes to read
+     * @throws NoSuchElementException if there are fewer than {@code length} bytes available
+     */
+    public void readBytes(byte[] x, int offset, int length) {
+        if ((n & 7) != 0) {
+            for (int i = offset; i < offset + length; i++)
+                x[i] = (byte) readBits(8);
+            return;
+        }
+        int i = offset;
+        int end = offset + length;
+        for (; n > 0 && i < end; i++) {         // whole bytes still in buffer
+            x[i] = (byte) (buffer >>> 56);
+            buffer <<= 8;
+            n -= 8;
+        }
+        int k = Math.min(end - i, limit - position);
+        System.arraycopy(bytes, position, x, i, k);
+        position += k;
+        i += k;
+        while (i < end) {
+            int read;
+            try {
+                read = eof ? -1 : in.read(x, i, end - i);
+            }
+            catch (IOException e) {
+                read = -1;
+            }
+            if (read < 0) {
+                eof = true;
+                throw new NoSuchElementException("Reading from empty input stream");
+            }
+            i += read;
+        }
+    }
+
    /**
      * Reads the next 8 bits from this binary input stream and return as an 8-bit byte.
      *
@@ -10,14 +10,21 @@
  *
  *  The bytes written are not aligned.
  *
+ *  Bits are collected in a 64-bit accumulator, whole words are copied into
+ *  an internal byte array and the underlying stream is only written to in
+ *  chunks of that array's size.
+ *
  ******************************************************************************/
 
 
-import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.net.Socket;
+import java.nio.ByteOrder;
 
 /**
  * <i>Binary output</i>. This class provides methods for converting
@@ -29,6 +36,9 @@ import java.net.Socket;
  * <p>
  * The client must {@code flush()} the output stream when finished writing bits.
  * <p>
+ * A failed write to the underlying stream is thrown as an {@code UncheckedIOException},
+ * so a full disk or a closed connection is not mistaken for output that was written.
+ * <p>
  * The client should not intermixing calls to {@code BinaryOut} with calls
  * to {@code Out}; otherwise unexpected behavior will result.
  *
@@ -36,17 +46,23 @@ import java.net.Socket;
  * @author Kevin Wayne
  */
 public final class BinaryOut {
+    private static final int CHUNK_SIZE = 1 << 16;   // bytes handed to the stream at a time
+    private static final VarHandle LONG_BE =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
 
-    private BufferedOutputStream out;  // the output stream
-    private int buffer;                // 8-bit buffer of bits to write out
-    private int n;                     // number of bits remaining in buffer
+    private OutputStream out;          // the output stream
+    private long buffer;               // 64-bit buffer of bits to write out
+    private int n;                     // number of bits in buffer
+    private final byte[] bytes;        // whole bytes not yet written to out
+    private int count;                 // number of bytes used in bytes
 
 
     /**
      * Initializes a binary output stream from standard output.
      */
     public BinaryOut() {
-        out = new BufferedOutputStream(System.out);
+        out = System.out;
+        bytes = new byte[CHUNK_SIZE];
     }
 
     /**
@@ -55,7 +71,23 @@ public final class BinaryOut {
      * @param os the {@code OutputStream}
      */
     public BinaryOut(OutputStream os) {
-        out = new BufferedOutputStream(os);
+        out = os;
+        bytes = new byte[CHUNK_SIZE];
+    }
+
+    /**
+     * Initializes a binary output stream from an {@code OutputStream} that collects
+     * whole bytes in {@code buffer} instead of an array of its own, so a short-lived
+     * stream can reuse one.
+     *
+     * @param os the {@code OutputStream}
+     * @param buffer at least 8 bytes, used by nothing else until this stream is flushed
+     * @throws IllegalArgumentException if {@code buffer} is shorter than 8 bytes
+     */
+    public BinaryOut(OutputStream os, byte[] buffer) {
+        if (buffer.length < 8) throw new IllegalArgumentException("Buffer of " + buffer.length + " bytes is too short");
+        out = os;
+        bytes = buffer;
     }
 
     /**
@@ -64,9 +96,9 @@ public final class BinaryOut {
      * @param filename the name of the file
      */
     public BinaryOut(String filename) {
+        bytes = new byte[CHUNK_SIZE];
         try {
-            OutputStream os = new FileOutputStream(filename);
-            out = new BufferedOutputStream(os);
+            out = new FileOutputStream(filename);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -78,9 +110,9 @@ public final class BinaryOut {
      * @param socket the socket
      */
     public BinaryOut(Socket socket) {
+        bytes = new byte[CHUNK_SIZE];
         try {
-            OutputStream os = socket.getOutputStream();
-            out = new BufferedOutputStream(os);
+            out = socket.getOutputStream();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -93,13 +125,7 @@ public final class BinaryOut {
      * @param x the bit
      */
     private void writeBit(boolean x) {
-        // add bit to buffer
-        buffer <<= 1;
-        if (x) buffer |= 1;
-
-        // if buffer is full (8 bits), write out as a single byte
-        n++;
-        if (n == 8) clearBuffer();
+        writeBits(x ? 1 : 0, 1);
     }
 
     /**
@@ -109,37 +135,115 @@ public final class BinaryOut {
      */
     private void writeByte(int x) {
         assert x >= 0 && x < 256;
+        writeBits(x, 8);
+    }
+
+    /**
+     * Writes the {@code r} least significant bits of {@code x} to the binary
+     * output stream, most significant of them first.
+     *
+     * @param x the bits to write, right aligned; higher bits are ignored
+     * @param r the number of bits to write
+     * @throws IllegalArgumentException unless {@code r} is between 1 and 64
+     */
+    public void writeBits(long x, int r) {
+        if (r < 1 || r > 64) throw new IllegalArgumentException("Illegal value for r = " + r);
+        if (r < 64) x &= (1L << r) - 1;
+
+        // fits in the accumulator
+        if (n + r < 64) {
+            buffer = (buffer << r) | x;
+            n += r;
+            return;
+        }
+
+        // otherwise complete a 64-bit word, store it and keep the bits left over
+        int rest = n + r - 64;
+        long word = (n == 0 ? 0 : buffer << (64 - n)) | (x >>> rest);
+        if (count + 8 > bytes.length) writeBytes();
+        LONG_BE.set(bytes, count, word);
+        count += 8;
+        buffer = x & ((1L << rest) - 1);
+        n = rest;
+    }
+
+    /**
+     * Writes the first {@code r} bits of {@code x} to the binary output stream,
+     * starting with the most significant bit of {@code x[0]}.
+     *
+     * @param x the bits to write
+     * @param r the number of bits to write
+     * @throws IllegalArgumentException unless {@code r} is between 0 and 8 * {@code x.length}
+     */
+    public void writeBits(byte[] x, long r) {
+        if (r < 0 || r > 8L * x.length) throw new IllegalArgumentException("Illegal value for r = " + r);
 
-        // optimized if byte-aligned
-        if (n == 0) {
+        // byte-aligned and large: hand x to the output stream directly
+        if (n == 0 && (r & 7) == 0 && r >= 8L * bytes.length) {
+            writeBytes();
             try {
-                out.write(x);
+                out.write(x, 0, (int) (r >>> 3));
             } catch (IOException e) {
-                e.printStackTrace();
+                throw new UncheckedIOException(e);
             }
             return;
         }
 
-        // otherwise write one bit at a time
-        for (int i = 0; i < 8; i++) {
-            boolean bit = ((x >>> (8 - i - 1)) & 1) == 1;
-            writeBit(bit);
+        int i = 0;
+        for (; r >= 64; r -= 64, i += 8)
+            writeBits((long) LONG_BE.get(x, i), 64);
+        for (; r >= 8; r -= 8, i++)
+            writeBits(x[i], 8);
+        if (r > 0)
+            writeBits((x[i] & 0xff) >>> (8 - r), (int) r);
+    }
+
+    // hand the whole bytes collected so far to the output stream
+    private void writeBytes() {
+        try {
+            out.write(bytes, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        count = 0;
     }
 
     // write out any remaining bits in buffer to the binary output stream, padding with 0s
     private void clearBuffer() {
-        if (n == 0) return;
-        if (n > 0) buffer <<= (8 - n);
-        try {
-            out.write(buffer);
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (n > 0) {
+            int padded = (n + 7) & ~7;
+            long bits = buffer << (padded - n);
+            if (count + 8 > bytes.length) writeBytes();
+            for (int i = padded - 8; i >= 0; i -= 8)
+                bytes[count++] = (byte) (bits >>> i);
         }
+        writeBytes();
         n = 0;
         buffer = 0;
     }
 
+    /**
+     * Flushes all complete bytes written so far to the binary output stream, keeping
+     * the last bits back if they do not fill a byte. Unlike {@code flush()} this adds
+     * no padding, so writing can continue seamlessly.
+     */
+    public void flushWholeBytes() {
+        int whole = n & ~7;
+        if (whole > 0) {
+            if (count + 8 > bytes.length) writeBytes();
+            for (int i = n - 8; i >= n - whole; i -= 8)
+                bytes[count++] = (byte) (buffer >>> i);
+            n -= whole;
+            buffer &= (1L << n) - 1;
+        }
+        writeBytes();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * Flushes the binary output stream, padding 0s if number of bits written so far
      * is not a multiple of 8.
@@ -149,7 +253,7 @@ public final class BinaryOut {
         try {
             out.flush();
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -162,7 +266,7 @@ public final class BinaryOut {
         try {
             out.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -191,10 +295,7 @@ public final class BinaryOut {
      * @param x the {@code int} to write
      */
     public void write(int x) {
-        writeByte((x >>> 24) & 0xff);
-        writeByte((x >>> 16) & 0xff);
-        writeByte((x >>> 8) & 0xff);
-        writeByte((x >>> 0) & 0xff);
+        writeBits(x, 32);
     }
 
     /**
@@ -211,11 +312,8 @@ public final class BinaryOut {
             return;
         }
         if (r < 1 || r > 32) throw new IllegalArgumentException("Illegal value for r = " + r);
-        if (x >= (1 << r)) throw new IllegalArgumentException("Illegal " + r + "-bit char = " + x);
-        for (int i = 0; i < r; i++) {
-            boolean bit = ((x >>> (r - i - 1)) & 1) == 1;
-            writeBit(bit);
-        }
+        if (x < 0 || x >= (1 << r)) throw new IllegalArgumentException("Illegal " + r + "-bit char = " + x);
+        writeBits(x, r);
     }
 
 
@@ -234,14 +332,7 @@ public final class BinaryOut {
      * @param x the {@code long} to write
      */
     public void write(long x) {
-        writeByte((int) ((x >>> 56) & 0xff));
-        writeByte((int) ((x >>> 48) & 0xff));
-        writeByte((int) ((x >>> 40) & 0xff));
-        writeByte((int) ((x >>> 32) & 0xff));
-        writeByte((int) ((x >>> 24) & 0xff));
-        writeByte((int) ((x >>> 16) & 0xff));
-        writeByte((int) ((x >>> 8) & 0xff));
-        writeByte((int) ((x >>> 0) & 0xff));
+        writeBits(x, 64);
     }
 
     /**
@@ -259,8 +350,7 @@ public final class BinaryOut {
      * @param x the {@code short} to write.
      */
     public void write(short x) {
-        writeByte((x >>> 8) & 0xff);
-        writeByte((x >>> 0) & 0xff);
+        writeBits(x, 16);
     }
 
     /**
@@ -289,10 +379,7 @@ public final class BinaryOut {
         }
         if (r < 1 || r > 16) throw new IllegalArgumentException("Illegal value for r = " + r);
         if (x >= (1 << r)) throw new IllegalArgumentException("Illegal " + r + "-bit char = " + x);
-        for (int i = 0; i < r; i++) {
-            boolean bit = ((x >>> (r - i - 1)) & 1) == 1;
-            writeBit(bit);
-        }
+        writeBits(x, r);
     }
 
     /**
@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Where each block of an encoded file starts, how many bits it holds and how many bytes
+ * it decodes to. Every block starts on a byte boundary and is decoded with the shared code,
+ * so blocks can be decoded independently and in any order.
+ *
+ * The index is stored at the very end of the encoded file: one entry per block of
+ * offset (8 bytes), bit count (8 bytes) and decoded size (4 bytes), followed by the
+ * number of blocks (4 bytes) and a CRC32C of all of the above (4 bytes).
+ * All values are big-endian.
+ */
+class BlockIndex {
+    private static final int ENTRY_BYTES = 8 + 8 + 4;
+
+    private long[] offsets = new long[16]; //byte offset of the block in the encoded file
+    private long[] bits = new long[16]; //number of encoded bits in the block
+    private int[] sizes = new int[16]; //number of bytes the block decodes to
+    private int count;
+
+    void add(long offset, long blockBits, int size) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+            bits = Arrays.copyOf(bits, count * 2);
+            sizes = Arrays.copyOf(sizes, count * 2);
+        }
+        offsets[count] = offset;
+        bits[count] = blockBits;
+        sizes[count] = size;
+        count++;
+    }
+
+    int count() {
+        return count;
+    }
+
+    long offset(int block) {
+        return offsets[block];
+    }
+
+    long bits(int block) {
+        return bits[block];
+    }
+
+    int size(int block) {
+        return sizes[block];
+    }
+
+    //Bytes the index takes at the end of the file
+    long length() {
+        return length(count);
+    }
+
+    static long length(long blocks) {
+        return blocks * ENTRY_BYTES + 4 + Container.CHECKSUM_BYTES;
+    }
+
+    void write(BinaryOut out) {
+        ByteBuffer index = ByteBuffer.allocate((int) length());
+        for (int i = 0; i < count; i++)
+            index.putLong(offsets[i]).putLong(bits[i]).putInt(sizes[i]);
+        index.putInt(count);
+        index.putInt(Container.checksum(index.array(), 0, index.position()));
+        for (byte b : index.array())
+            out.write(b);
+    }
+
+    static BlockIndex read(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer trailer = Container.readFully(channel, size - 8, 8);
+        int count = trailer.getInt();
+        long start = size - 8 - (long) count * ENTRY_BYTES;
+        if (count < 0 || start < 0)
+            throw new IOException("Corrupt block index: " + count + " blocks in " + size + " bytes");
+
+        ByteBuffer entries = Container.readFully(channel, start, (int) (size - start));
+        if (Container.checksum(entries.array(), 0, entries.limit() - 4) != entries.getInt(entries.limit() - 4))
+            throw new IOException("Block index checksum mismatch");
+        BlockIndex index = new BlockIndex();
+        for (int i = 0; i < count; i++)
+            index.add(entries.getLong(), entries.getLong(), entries.getInt());
+        return index;
+    }
+}
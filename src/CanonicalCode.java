@@ -0,0 +1,95 @@
+/**
+ * Canonical Huffman code over the 256 byte values. Codes are assigned in order of
+ * (code length, symbol), so the code lengths alone are enough to rebuild every code
+ * and only the lengths have to be stored with the encoded file.
+ *
+ * Header layout: a 32 byte bitmap of the symbols that occur (symbol 0 is the most
+ * significant bit of the first byte), followed by a 6 bit code length for each of
+ * those symbols in increasing symbol order, zero padded to a whole byte.
+ */
+class CanonicalCode {
+    static final int SYMBOLS = 256;
+    static final int MAX_CODE_LENGTH = 32; //keeps every code within an int and the decoder's bit buffer
+
+    private static final int LENGTH_BITS = 6;
+
+    private final int[] lengths;
+    private final long[] codes;
+
+    /**
+     * @param lengths code length of each symbol, 0 if the symbol does not occur
+     */
+    CanonicalCode(int[] lengths) {
+        this.lengths = lengths.clone();
+        this.codes = new long[SYMBOLS];
+
+        //first code of each length: after the codes of length - 1, with a zero appended
+        long[] next = new long[MAX_CODE_LENGTH + 2];
+        int[] count = new int[MAX_CODE_LENGTH + 1];
+        for (int length : lengths)
+            count[length]++;
+        count[0] = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++)
+            next[length + 1] = (next[length] + count[length]) << 1;
+        for (int s = 0; s < SYMBOLS; s++) {
+            if (lengths[s] > 0)
+                codes[s] = next[lengths[s]]++;
+        }
+    }
+
+    int[] lengths() {
+        return lengths;
+    }
+
+    long[] codes() {
+        return codes;
+    }
+
+    //Bytes taken by the header when present symbols occur
+    static int headerLength(int present) {
+        return SYMBOLS / 8 + (present * LENGTH_BITS + 7) / 8;
+    }
+
+    byte[] header() {
+        int present = 0;
+        for (int length : lengths)
+            if (length > 0)
+                present++;
+
+        byte[] header = new byte[headerLength(present)];
+        int bit = SYMBOLS;
+        for (int s = 0; s < SYMBOLS; s++) {
+            if (lengths[s] == 0)
+                continue;
+            header[s >>> 3] |= 0x80 >>> (s & 7);
+            for (int i = LENGTH_BITS - 1; i >= 0; i--, bit++) {
+                if (((lengths[s] >>> i) & 1) == 1)
+                    header[bit >>> 3] |= 0x80 >>> (bit & 7);
+            }
+        }
+        return header;
+    }
+
+    static CanonicalCode readHeader(BinaryIn in) {
+        boolean[] present = new boolean[SYMBOLS];
+        int count = 0;
+        for (int s = 0; s < SYMBOLS; s++) {
+            present[s] = in.readBoolean();
+            if (present[s])
+                count++;
+        }
+
+        int[] lengths = new int[SYMBOLS];
+        for (int s = 0; s < SYMBOLS; s++) {
+            if (!present[s])
+                continue;
+            lengths[s] = in.readBits(LENGTH_BITS);
+            if (lengths[s] == 0 || lengths[s] > MAX_CODE_LENGTH)
+                throw new IllegalArgumentException("Corrupt header: code length " + lengths[s] + " for symbol " + s);
+        }
+        int padding = (8 - count * LENGTH_BITS % 8) % 8;
+        if (padding > 0)
+            in.skipBits(padding);
+        return new CanonicalCode(lengths);
+    }
+}
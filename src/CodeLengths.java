@@ -0,0 +1,64 @@
+import java.util.Arrays;
+
+/**
+ * Huffman code lengths computed on flat arrays, without building a tree of objects.
+ *
+ * The symbols are sorted by frequency once. Merged nodes are created in order of
+ * increasing weight, so they form a second sorted queue and the two cheapest nodes are
+ * always at the front of one of the two queues: the whole merge takes linear time.
+ * Only the parent of each node is recorded, and depths are read off from the root down.
+ *
+ * The scratch arrays are reused, so computing lengths allocates nothing. An instance
+ * must not be shared between threads.
+ */
+class CodeLengths {
+    private final long[] sorted = new long[CanonicalCode.SYMBOLS]; //frequency << 8 | symbol
+    private final long[] weight = new long[2 * CanonicalCode.SYMBOLS]; //symbols first, then merged nodes
+    private final int[] parent = new int[2 * CanonicalCode.SYMBOLS]; //later reused for depths
+
+    /**
+     * @param frequency frequency of each symbol, 0 if the symbol does not occur
+     * @param lengths   receives the code length of each symbol, 0 if the symbol does not occur
+     * @return the longest code length
+     */
+    int compute(long[] frequency, int[] lengths) {
+        Arrays.fill(lengths, 0);
+        int n = 0;
+        for (int s = 0; s < frequency.length; s++) {
+            if (frequency[s] > 0)
+                sorted[n++] = (frequency[s] << 8) | s;
+        }
+        if (n == 0)
+            return 0;
+        if (n == 1) { //a lone symbol still needs a one bit code
+            lengths[(int) (sorted[0] & 0xFF)] = 1;
+            return 1;
+        }
+        Arrays.sort(sorted, 0, n);
+        for (int i = 0; i < n; i++)
+            weight[i] = sorted[i] >>> 8;
+
+        //nodes 0..n-1 are the symbols, node n + k is the k-th merge
+        int leaf = 0;
+        int merged = n;
+        for (int next = n; next < 2 * n - 1; next++) {
+            int a = leaf < n && (merged == next || weight[leaf] <= weight[merged]) ? leaf++ : merged++;
+            int b = leaf < n && (merged == next || weight[leaf] <= weight[merged]) ? leaf++ : merged++;
+            weight[next] = weight[a] + weight[b];
+            parent[a] = next;
+            parent[b] = next;
+        }
+
+        //parents always come later than their children, so walk back from the root
+        int root = 2 * n - 2;
+        parent[root] = 0;
+        for (int node = root - 1; node >= 0; node--)
+            parent[node] = parent[parent[node]] + 1;
+        int maxLength = 0;
+        for (int i = 0; i < n; i++) {
+            lengths[(int) (sorted[i] & 0xFF)] = parent[i];
+            maxLength = Math.max(maxLength, parent[i]);
+        }
+        return maxLength;
+    }
+}
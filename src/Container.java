@@ -0,0 +1,226 @@
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+/**
+ * Layout of an encoded file. Everything needed to decode it is inside the file,
+ * and every part carries a CRC32C so integrity can be checked without decoding.
+ *
+ * <pre>
+ * header   magic "HUFB" (4), version (1), flags (1, FLAG_STREAMS, FLAG_CONTEXT or 0), original size (8),
+ *          code lengths (see CanonicalCode, or ContextCode with FLAG_CONTEXT),
+ *          CRC32C of the header so far (4)
+ * frame    decoded size (4), payload bit count (8), payload zero padded to a whole byte,
+ *          CRC32C of the frame so far (4). A stored frame has STORED | 8 * size as its bit
+ *          count and the block itself as its payload.
+ * ...      one frame per block
+ * index    see BlockIndex
+ * </pre>
+ * All numbers are big-endian.
+ */
+class Container {
+    static final byte[] MAGIC = {'H', 'U', 'F', 'B'};
+    static final int VERSION = 1;
+    static final int FRAME_HEADER_BYTES = 4 + 8;
+    static final int CHECKSUM_BYTES = 4;
+    static final int FLAG_STREAMS = 1; //every frame holds HuffmanDecoder.STREAMS interleaved streams
+    static final int FLAG_CONTEXT = 2; //order-1 code, every frame holds one stream
+    static final long STORED = 1L << 63; //set in the bit count of a frame that is not coded
+
+    private static final int FIXED_HEADER_BYTES = MAGIC.length + 1 + 1 + 8;
+    //longest possible header, an order-1 code with every cluster using all 256 symbols
+    static final int MAX_HEADER_BYTES = FIXED_HEADER_BYTES + ContextCode.MAX_HEADER_BYTES + CHECKSUM_BYTES;
+    //longest possible header of an order-0 code, with all 256 symbols present
+    static final int MAX_ORDER0_HEADER_BYTES = FIXED_HEADER_BYTES + CanonicalCode.headerLength(CanonicalCode.SYMBOLS) + CHECKSUM_BYTES;
+
+    private final long originalSize;
+    private final CanonicalCode code; //null with FLAG_CONTEXT
+    private final ContextCode contextCode; //null without FLAG_CONTEXT
+    private final int flags;
+    private final int length; //bytes taken by the header
+
+    private Container(long originalSize, CanonicalCode code, ContextCode contextCode, int flags, int length) {
+        this.originalSize = originalSize;
+        this.code = code;
+        this.contextCode = contextCode;
+        this.flags = flags;
+        this.length = length;
+    }
+
+    long originalSize() {
+        return originalSize;
+    }
+
+    CanonicalCode code() {
+        return code;
+    }
+
+    ContextCode contextCode() {
+        return contextCode;
+    }
+
+    HuffmanDecoder decoder() {
+        return contextCode != null ? new HuffmanDecoder(contextCode) : new HuffmanDecoder(code.codes(), code.lengths());
+    }
+
+    int length() {
+        return length;
+    }
+
+    //Bitstreams per frame
+    int streams() {
+        return (flags & FLAG_STREAMS) != 0 ? HuffmanDecoder.STREAMS : 1;
+    }
+
+    static byte[] header(long originalSize, CanonicalCode code, int flags) {
+        return header(originalSize, code.header(), flags);
+    }
+
+    static byte[] header(long originalSize, ContextCode code) {
+        return header(originalSize, code.header(), FLAG_CONTEXT);
+    }
+
+    private static byte[] header(long originalSize, byte[] lengths, int flags) {
+        ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_BYTES + lengths.length + CHECKSUM_BYTES);
+        header.put(MAGIC).put((byte) VERSION).put((byte) flags).putLong(originalSize).put(lengths);
+        header.putInt(checksum(header.array(), 0, header.position()));
+        return header.array();
+    }
+
+    static Container readHeader(FileChannel channel) throws IOException {
+        return readHeader(readFully(channel, 0, (int) Math.min(channel.size(), MAX_HEADER_BYTES)));
+    }
+
+    //Reads the header at the start of encoded, leaving its position unchanged
+    static Container readHeader(ByteBuffer encoded) throws IOException {
+        ByteBuffer header = encoded.slice();
+        if (header.remaining() < FIXED_HEADER_BYTES + CanonicalCode.SYMBOLS / 8)
+            throw new EOFException("Encoded data is too short");
+        for (byte b : MAGIC) {
+            if (header.get() != b)
+                throw new IOException("Not a Huffman encoded file");
+        }
+        int version = header.get();
+        if (version != VERSION)
+            throw new IOException("Unsupported version " + version);
+        int flags = header.get();
+        if ((flags & ~(FLAG_STREAMS | FLAG_CONTEXT)) != 0 || flags == (FLAG_STREAMS | FLAG_CONTEXT))
+            throw new IOException("Unsupported flags " + flags);
+        long originalSize = header.getLong();
+
+        int codeLength;
+        if ((flags & FLAG_CONTEXT) != 0) {
+            try {
+                codeLength = ContextCode.headerLength(header, FIXED_HEADER_BYTES);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+            if (codeLength < 0)
+                throw new EOFException("Encoded data is too short");
+        }
+        else {
+            int present = 0;
+            for (int i = 0; i < CanonicalCode.SYMBOLS / 8; i++)
+                present += Integer.bitCount(header.get(FIXED_HEADER_BYTES + i) & 0xFF);
+            codeLength = CanonicalCode.headerLength(present);
+        }
+        int length = FIXED_HEADER_BYTES + codeLength + CHECKSUM_BYTES;
+        if (header.limit() < length)
+            throw new EOFException("Encoded data is too short");
+        if (checksum(header, 0, length - CHECKSUM_BYTES) != header.getInt(length - CHECKSUM_BYTES))
+            throw new IOException("Header checksum mismatch");
+
+        try {
+            if ((flags & FLAG_CONTEXT) != 0)
+                return new Container(originalSize, null, ContextCode.readHeader(header, FIXED_HEADER_BYTES, codeLength), flags, length);
+            byte[] lengths = new byte[codeLength];
+            header.get(FIXED_HEADER_BYTES, lengths);
+            CanonicalCode code = CanonicalCode.readHeader(new BinaryIn(new ByteArrayInputStream(lengths)));
+            return new Container(originalSize, code, null, flags, length);
+        } catch (IllegalArgumentException | NoSuchElementException e) { //passed the checksum, but was never valid
+            throw new IOException("Corrupt header", e);
+        }
+    }
+
+    static int frameLength(long bits) {
+        return FRAME_HEADER_BYTES + (int) ((bitCount(bits) + 7) / 8) + CHECKSUM_BYTES;
+    }
+
+    static boolean isStored(long bits) {
+        return (bits & STORED) != 0;
+    }
+
+    //Payload bits of a frame whose header gives bits
+    static long bitCount(long bits) {
+        return bits & ~STORED;
+    }
+
+    //Throws unless the frame of length bytes at offset in buffer ends with the checksum of the rest
+    static void checkFrame(ByteBuffer buffer, int offset, int length, long position) throws IOException {
+        if (checksum(buffer, offset, length - CHECKSUM_BYTES) != buffer.getInt(offset + length - CHECKSUM_BYTES))
+            throw new IOException("Frame checksum mismatch at offset " + position);
+    }
+
+    static int checksum(byte[] bytes, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    //Checksum of length bytes of header followed by the remaining bytes of payload
+    static int checksum(byte[] header, int length, ByteBuffer payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(header, 0, length);
+        crc.update(payload.slice());
+        return (int) crc.getValue();
+    }
+
+    static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset, length)); //also reads direct buffers without copying
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Checks the header, the index and the checksum of every frame without decoding.
+     *
+     * @throws IOException describing the first problem found
+     */
+    static void verify(FileChannel channel) throws IOException {
+        Container header = readHeader(channel);
+        BlockIndex index = BlockIndex.read(channel);
+        long expected = header.length();
+        long size = 0;
+        for (int i = 0; i < index.count(); i++) {
+            if (index.offset(i) != expected)
+                throw new IOException("Frame " + i + " at offset " + index.offset(i) + ", expected " + expected);
+            int length = frameLength(index.bits(i));
+            ByteBuffer frame = readFully(channel, index.offset(i), length);
+            if (frame.getInt(0) != index.size(i) || frame.getLong(4) != index.bits(i))
+                throw new IOException("Frame " + i + " does not match the index");
+            checkFrame(frame, 0, length, index.offset(i));
+            expected += length;
+            size += index.size(i);
+        }
+        if (expected + index.length() != channel.size())
+            throw new IOException("Index does not follow the last frame");
+        if (size != header.originalSize())
+            throw new IOException("Frames decode to " + size + " bytes, header says " + header.originalSize());
+    }
+
+    static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        if (position < 0)
+            throw new EOFException("Encoded file is too short");
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Encoded file ended at " + (position + buffer.position()));
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,255 @@
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Order-1 code: the code of every byte is chosen by the byte before it, its context.
+ * A code per context would cost 256 headers, so contexts with similar statistics are
+ * clustered and every cluster gets one CanonicalCode. The first byte of a block follows
+ * a 0, so blocks still decode independently.
+ *
+ * Header layout: the number of clusters (1), the cluster of every context (256), then
+ * the code lengths of every cluster (see CanonicalCode).
+ */
+class ContextCode {
+    static final int CONTEXTS = 256;
+    static final int MAX_CLUSTERS = 16;
+    //longest possible header, every cluster with all 256 symbols present
+    static final int MAX_HEADER_BYTES = 1 + CONTEXTS + MAX_CLUSTERS * CanonicalCode.headerLength(CanonicalCode.SYMBOLS);
+
+    private static final int ITERATIONS = 10;
+
+    private final byte[] clusters; //cluster of each context
+    private final CanonicalCode[] codes; //code of each cluster
+    private final long[] flatCodes; //code of symbol s after a context of cluster k at k << 8 | s
+    private final int[] flatLengths;
+
+    ContextCode(byte[] clusters, CanonicalCode[] codes) {
+        this.clusters = clusters;
+        this.codes = codes;
+        flatCodes = new long[codes.length * CanonicalCode.SYMBOLS];
+        flatLengths = new int[codes.length * CanonicalCode.SYMBOLS];
+        for (int k = 0; k < codes.length; k++) {
+            System.arraycopy(codes[k].codes(), 0, flatCodes, k << 8, CanonicalCode.SYMBOLS);
+            System.arraycopy(codes[k].lengths(), 0, flatLengths, k << 8, CanonicalCode.SYMBOLS);
+        }
+    }
+
+    byte[] clusters() {
+        return clusters;
+    }
+
+    CanonicalCode code(int cluster) {
+        return codes[cluster];
+    }
+
+    int clusterCount() {
+        return codes.length;
+    }
+
+    long[] codes() {
+        return flatCodes;
+    }
+
+    int[] lengths() {
+        return flatLengths;
+    }
+
+    //Adds the (previous byte, byte) pairs of the remaining bytes of block to counts[previous << 8 | byte]
+    static void count(ByteBuffer block, long[] counts) {
+        int previous = 0;
+        for (int i = block.position(); i < block.limit(); i++) {
+            int s = block.get(i) & 0xFF;
+            counts[previous << 8 | s]++;
+            previous = s;
+        }
+    }
+
+    /**
+     * The cheapest clustering found for the pair counts, header included, trying 1, 2, 4,
+     * 8 and 16 clusters until doubling them stops paying for the larger header.
+     *
+     * @param counts      count of every pair at previous << 8 | byte, see count
+     * @param codec       limits the code lengths
+     * @param everySymbol give every cluster a code for every byte, for counts of a sample
+     */
+    static ContextCode build(long[] counts, HuffmanCodec codec, boolean everySymbol) {
+        int active = 0;
+        for (int c = 0; c < CONTEXTS; c++) {
+            for (int s = 0; s < CanonicalCode.SYMBOLS; s++) {
+                if (counts[c << 8 | s] > 0) {
+                    active++;
+                    break;
+                }
+            }
+        }
+        ContextCode best = null;
+        long bestBits = Long.MAX_VALUE;
+        for (int k = 1; k <= MAX_CLUSTERS && (k == 1 || k <= active); k *= 2) {
+            ContextCode code = fromClusters(counts, cluster(counts, k), codec, everySymbol);
+            long bits = code.cost(counts) + 8L * code.header().length;
+            if (bits >= bestBits)
+                break;
+            best = code;
+            bestBits = bits;
+        }
+        return best;
+    }
+
+    /*
+    k-means over contexts: every context joins the cluster whose distribution codes it in
+    the fewest bits, then the cluster distributions are recounted, until nothing moves.
+    The busiest contexts seed the clusters.
+     */
+    private static byte[] cluster(long[] counts, int k) {
+        long[] totals = new long[CONTEXTS];
+        int[][] present = new int[CONTEXTS][]; //symbols seen after each context
+        for (int c = 0; c < CONTEXTS; c++) {
+            int n = 0;
+            int[] symbols = new int[CanonicalCode.SYMBOLS];
+            for (int s = 0; s < CanonicalCode.SYMBOLS; s++) {
+                if (counts[c << 8 | s] > 0) {
+                    symbols[n++] = s;
+                    totals[c] += counts[c << 8 | s];
+                }
+            }
+            present[c] = Arrays.copyOf(symbols, n);
+        }
+        Integer[] byTotal = new Integer[CONTEXTS];
+        for (int c = 0; c < CONTEXTS; c++)
+            byTotal[c] = c;
+        Arrays.sort(byTotal, (a, b) -> Long.compare(totals[b], totals[a]));
+
+        byte[] clusters = new byte[CONTEXTS];
+        long[][] histograms = new long[k][CanonicalCode.SYMBOLS];
+        for (int i = 0; i < k; i++)
+            System.arraycopy(counts, byTotal[i] << 8, histograms[i], 0, CanonicalCode.SYMBOLS);
+        double[][] cost = new double[k][CanonicalCode.SYMBOLS];
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            for (int i = 0; i < k; i++) { //bits per symbol, unseen symbols made expensive but not impossible
+                long total = 0;
+                for (long f : histograms[i])
+                    total += f;
+                for (int s = 0; s < CanonicalCode.SYMBOLS; s++)
+                    cost[i][s] = Math.log((total + CanonicalCode.SYMBOLS * 0.5) / (histograms[i][s] + 0.5));
+            }
+            boolean moved = false;
+            for (int c = 0; c < CONTEXTS; c++) {
+                if (totals[c] == 0)
+                    continue;
+                int bestCluster = 0;
+                double bestCost = Double.MAX_VALUE;
+                for (int i = 0; i < k; i++) {
+                    double bits = 0;
+                    for (int s : present[c])
+                        bits += counts[c << 8 | s] * cost[i][s];
+                    if (bits < bestCost) {
+                        bestCost = bits;
+                        bestCluster = i;
+                    }
+                }
+                moved |= iteration == 0 || clusters[c] != bestCluster;
+                clusters[c] = (byte) bestCluster;
+            }
+            if (!moved)
+                break;
+            for (long[] histogram : histograms)
+                Arrays.fill(histogram, 0);
+            for (int c = 0; c < CONTEXTS; c++) {
+                for (int s : present[c])
+                    histograms[clusters[c]][s] += counts[c << 8 | s];
+            }
+        }
+        return clusters;
+    }
+
+    //Numbers the clusters that are used from 0 and builds their codes
+    private static ContextCode fromClusters(long[] counts, byte[] clusters, HuffmanCodec codec, boolean everySymbol) {
+        int[] number = new int[MAX_CLUSTERS];
+        Arrays.fill(number, -1);
+        long[][] histograms = new long[MAX_CLUSTERS][CanonicalCode.SYMBOLS];
+        int used = 0;
+        byte[] renumbered = new byte[CONTEXTS];
+        for (int c = 0; c < CONTEXTS; c++) {
+            long total = 0;
+            for (int s = 0; s < CanonicalCode.SYMBOLS; s++)
+                total += counts[c << 8 | s];
+            if (total == 0)
+                continue; //never seen, stays in cluster 0
+            if (number[clusters[c]] < 0)
+                number[clusters[c]] = used++;
+            renumbered[c] = (byte) number[clusters[c]];
+            for (int s = 0; s < CanonicalCode.SYMBOLS; s++)
+                histograms[renumbered[c]][s] += counts[c << 8 | s];
+        }
+        CanonicalCode[] codes = new CanonicalCode[Math.max(used, 1)];
+        for (int i = 0; i < codes.length; i++) {
+            if (everySymbol) {
+                for (int s = 0; s < CanonicalCode.SYMBOLS; s++)
+                    histograms[i][s]++;
+            }
+            codes[i] = codec.code(histograms[i]);
+        }
+        return new ContextCode(renumbered, codes);
+    }
+
+    //Payload bits of coding counts with this code
+    long cost(long[] counts) {
+        long bits = 0;
+        for (int c = 0; c < CONTEXTS; c++) {
+            int base = clusters[c] << 8;
+            for (int s = 0; s < CanonicalCode.SYMBOLS; s++)
+                bits += counts[c << 8 | s] * flatLengths[base | s];
+        }
+        return bits;
+    }
+
+    byte[] header() {
+        ByteBuffer header = ByteBuffer.allocate(MAX_HEADER_BYTES);
+        header.put((byte) codes.length).put(clusters);
+        for (CanonicalCode code : codes)
+            header.put(code.header());
+        return Arrays.copyOf(header.array(), header.position());
+    }
+
+    /**
+     * Bytes taken by the header at offset of buffer, found from the cluster count and the
+     * symbol bitmaps, or -1 if buffer ends before that can be told.
+     *
+     * @throws IllegalArgumentException if the cluster count is out of range
+     */
+    static int headerLength(ByteBuffer buffer, int offset) {
+        if (buffer.limit() < offset + 1 + CONTEXTS)
+            return -1;
+        int count = buffer.get(offset) & 0xFF;
+        if (count < 1 || count > MAX_CLUSTERS)
+            throw new IllegalArgumentException("Corrupt header: " + count + " clusters");
+        int length = 1 + CONTEXTS;
+        for (int k = 0; k < count; k++) {
+            if (buffer.limit() < offset + length + CanonicalCode.SYMBOLS / 8)
+                return -1;
+            int present = 0;
+            for (int i = 0; i < CanonicalCode.SYMBOLS / 8; i++)
+                present += Integer.bitCount(buffer.get(offset + length + i) & 0xFF);
+            length += CanonicalCode.headerLength(present);
+        }
+        return length;
+    }
+
+    //Reads a header of length bytes, see headerLength
+    static ContextCode readHeader(ByteBuffer buffer, int offset, int length) {
+        byte[] header = new byte[length];
+        buffer.get(offset, header);
+        int count = header[0] & 0xFF;
+        byte[] clusters = Arrays.copyOfRange(header, 1, 1 + CONTEXTS);
+        for (byte cluster : clusters) {
+            if (cluster < 0 || cluster >= count)
+                throw new IllegalArgumentException("Corrupt header: cluster " + cluster + " of " + count);
+        }
+        CanonicalCode[] codes = new CanonicalCode[count];
+        BinaryIn in = new BinaryIn(new ByteArrayInputStream(header, 1 + CONTEXTS, length - 1 - CONTEXTS));
+        for (int k = 0; k < count; k++)
+            codes[k] = CanonicalCode.readHeader(in); //every code ends on a byte boundary
+        return new ContextCode(clusters, codes);
+    }
+}
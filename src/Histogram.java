@@ -0,0 +1,47 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Byte frequency counter. Consecutive bytes are counted into four separate tables
+ * that are summed at the end, so a run of the same byte does not make every increment
+ * wait for the store of the previous one.
+ */
+class Histogram {
+    private final long[] counts0 = new long[256];
+    private final long[] counts1 = new long[256];
+    private final long[] counts2 = new long[256];
+    private final long[] counts3 = new long[256];
+
+    void add(byte[] bytes, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        for (; i + 3 < end; i += 4) {
+            counts0[bytes[i] & 0xFF]++;
+            counts1[bytes[i + 1] & 0xFF]++;
+            counts2[bytes[i + 2] & 0xFF]++;
+            counts3[bytes[i + 3] & 0xFF]++;
+        }
+        for (; i < end; i++)
+            counts0[bytes[i] & 0xFF]++;
+    }
+
+    void add(ByteBuffer bytes, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        for (; i + 3 < end; i += 4) {
+            counts0[bytes.get(i) & 0xFF]++;
+            counts1[bytes.get(i + 1) & 0xFF]++;
+            counts2[bytes.get(i + 2) & 0xFF]++;
+            counts3[bytes.get(i + 3) & 0xFF]++;
+        }
+        for (; i < end; i++)
+            counts0[bytes.get(i) & 0xFF]++;
+    }
+
+    //Count of every byte value 0-255
+    long[] counts() {
+        long[] total = new long[256];
+        for (int s = 0; s < 256; s++)
+            total[s] = counts0[s] + counts1[s] + counts2[s] + counts3[s];
+        return total;
+    }
+}
@@ -0,0 +1,115 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.NoSuchElementException;
+
+/**
+ * Client of a HuffmanServer. It does no coding itself, so it loads none of the codec and
+ * starts quickly. One client holds one connection and sends one request at a time; open a
+ * client per thread to send requests concurrently.
+ */
+public final class HuffmanClient implements Closeable {
+    private final Closeable connection;
+    private final BinaryIn in;
+    private final BinaryOut out;
+
+    //Connects to a server on port of the loopback address
+    public HuffmanClient(int port) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        connection = socket;
+        in = new BinaryIn(socket);
+        out = new BinaryOut(socket);
+    }
+
+    //Connects to a server on the Unix domain socket at path
+    public HuffmanClient(String path) throws IOException {
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.connect(UnixDomainSocketAddress.of(path));
+        connection = channel;
+        in = new BinaryIn(Channels.newInputStream(channel));
+        out = new BinaryOut(Channels.newOutputStream(channel));
+    }
+
+    public byte[] compress(byte[] data) throws IOException {
+        return request(HuffmanServer.COMPRESS, data);
+    }
+
+    public byte[] decompress(byte[] encoded) throws IOException {
+        return request(HuffmanServer.DECOMPRESS, encoded);
+    }
+
+    private byte[] request(int operation, byte[] data) throws IOException {
+        try {
+            out.write((byte) operation);
+            out.write(data.length);
+            out.writeBits(data, 8L * data.length);
+            out.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        try {
+            int status = in.readByte();
+            byte[] result = new byte[in.readInt()];
+            in.readBytes(result, 0, result.length);
+            if (status != HuffmanServer.OK)
+                throw new IOException(new String(result, StandardCharsets.UTF_8));
+            return result;
+        } catch (NoSuchElementException e) {
+            throw new IOException("Server closed the connection", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        connection.close();
+    }
+
+    /*
+    args[0] compress or decompress
+    args[1] input file, - for standard input
+    args[2] output file, - for standard output
+    args[3] port of a server on this machine, or the path of its Unix domain socket
+     */
+    public static void main(String[] args) {
+        if (args.length != 4) {
+            System.err.println("Usage: HuffmanClient compress|decompress <InputFile|-> <OutputFile|-> <Port|SocketPath>");
+            System.exit(2);
+        }
+        try {
+            byte[] input;
+            if (args[1].equals("-")) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                System.in.transferTo(buffer);
+                input = buffer.toByteArray();
+            }
+            else
+                input = Files.readAllBytes(Paths.get(args[1]));
+
+            byte[] result;
+            try (HuffmanClient client = args[3].matches("\\d+") ? new HuffmanClient(Integer.parseInt(args[3]))
+                    : new HuffmanClient(args[3])) {
+                result = args[0].equals("compress") ? client.compress(input) : client.decompress(input);
+            }
+
+            try (OutputStream output = args[2].equals("-") ? System.out : new FileOutputStream(args[2])) {
+                output.write(result);
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,573 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * In-memory Huffman codec over byte arrays and ByteBuffers, heap or direct. The encoded
+ * form is the same as an encoded file (see Container), so either side can be a file.
+ *
+ * A codec holds only its settings, so one instance can be shared by any number of threads.
+ * The block level methods are what HuffmanMain builds the parallel file codec from.
+ */
+public final class HuffmanCodec {
+    static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    static final int DEFAULT_MAX_CODE_LENGTH = HuffmanDecoder.PRIMARY_BITS; //every code is found with one table lookup
+
+    //a block is coded only if that saves 1/STORE_THRESHOLD of it, else it is stored as it is
+    static final int STORE_THRESHOLD = 32;
+
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int SAMPLE_RUN = 64; //worthCoding looks at runs of this many bytes
+    private static final int SAMPLE_STRIDE = 1024; //one run this many bytes
+    private static final byte[] NO_CONTEXT = new byte[ContextCode.CONTEXTS];
+    private static final ThreadLocal<byte[]> chunk = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+    private static final ThreadLocal<byte[]> blockBuffer = ThreadLocal.withInitial(() -> new byte[0]);
+    private static final ThreadLocal<byte[]> messageBuffer = ThreadLocal.withInitial(() -> new byte[0]); //of a message's BinaryIn or BinaryOut
+    private static final ThreadLocal<CodeLengths> codeLengths = ThreadLocal.withInitial(CodeLengths::new);
+
+    private final int blockSize;
+    private final int maxCodeLength;
+    private final int streams;
+    private final int order;
+
+    public HuffmanCodec() {
+        this(DEFAULT_BLOCK_SIZE, DEFAULT_MAX_CODE_LENGTH, 1, 0);
+    }
+
+    public HuffmanCodec(int blockSize, int maxCodeLength) {
+        this(blockSize, maxCodeLength, 1, 0);
+    }
+
+    public HuffmanCodec(int blockSize, int maxCodeLength, int streams) {
+        this(blockSize, maxCodeLength, streams, 0);
+    }
+
+    /**
+     * @param blockSize     input bytes per frame
+     * @param maxCodeLength longest code, from 8 to 32 bits
+     * @param streams       bitstreams per frame, 1 or 4. Four interleaved streams decode
+     *                      faster and cost 15 bytes or less per frame.
+     * @param order         0 for one code, 1 for a code chosen by the previous byte (see
+     *                      ContextCode), which needs a single stream
+     */
+    public HuffmanCodec(int blockSize, int maxCodeLength, int streams, int order) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("Illegal block size " + blockSize);
+        if (maxCodeLength < 8 || maxCodeLength > CanonicalCode.MAX_CODE_LENGTH) //8 bits fit all 256 symbols
+            throw new IllegalArgumentException("Illegal maximum code length " + maxCodeLength);
+        if (streams != 1 && streams != HuffmanDecoder.STREAMS)
+            throw new IllegalArgumentException("Illegal stream count " + streams);
+        if (order != 0 && order != 1)
+            throw new IllegalArgumentException("Illegal order " + order);
+        if (order == 1 && streams != 1)
+            throw new IllegalArgumentException("Order 1 needs a single stream");
+        checkBlockSize(blockSize, maxCodeLength);
+        this.blockSize = blockSize;
+        this.maxCodeLength = maxCodeLength;
+        this.streams = streams;
+        this.order = order;
+    }
+
+    int blockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Upper bound of the encoded size of length input bytes, for sizing output buffers.
+     */
+    public long maxEncodedLength(long length) {
+        long blocks = (length + blockSize - 1) / blockSize;
+        return (order == 1 ? Container.MAX_HEADER_BYTES : Container.MAX_ORDER0_HEADER_BYTES) + blocks * maxFrameOverhead()
+                + (length * maxCodeLength + 7) / 8 + BlockIndex.length(blocks);
+    }
+
+    //Most bytes a frame of length input bytes can take with codes of up to maxCodeLength bits
+    static long maxFrameLength(long length, int maxCodeLength) {
+        return (length * maxCodeLength + 7) / 8 + maxFrameOverhead();
+    }
+
+    //Rejects a block size whose worst case frame would not fit in an array
+    static void checkBlockSize(int blockSize, int maxCodeLength) {
+        if (maxFrameLength(blockSize, maxCodeLength) > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Block size " + blockSize + " with codes of up to " + maxCodeLength
+                    + " bits can encode to a frame larger than an array");
+    }
+
+    //Most bytes a frame can add to its payload bits: header, checksum, jump table and padding
+    static int maxFrameOverhead() {
+        return Container.FRAME_HEADER_BYTES + HuffmanDecoder.JUMP_TABLE_BYTES + HuffmanDecoder.STREAMS
+                + Container.CHECKSUM_BYTES;
+    }
+
+    /**
+     * Original size recorded in the header of encoded, which is left unchanged.
+     *
+     * @throws IOException if encoded does not start with a valid header
+     */
+    public static long decodedLength(ByteBuffer encoded) throws IOException {
+        if (HuffmanDictionary.isMessage(encoded)) {
+            if (encoded.remaining() < HuffmanDictionary.MESSAGE_HEADER_BYTES)
+                throw new EOFException("Encoded data is too short");
+            return encoded.getInt(encoded.position() + HuffmanDictionary.MESSAGE_HEADER_BYTES - 4);
+        }
+        return Container.readHeader(encoded).originalSize();
+    }
+
+    public byte[] encode(byte[] input) {
+        ByteBuffer output = ByteBuffer.allocate((int) Math.min(maxEncodedLength(input.length), Integer.MAX_VALUE - 8));
+        encode(ByteBuffer.wrap(input), output);
+        return Arrays.copyOf(output.array(), output.position());
+    }
+
+    /**
+     * Encodes input with the code of dictionary, as a message that names the dictionary
+     * instead of storing a code, see HuffmanDictionary. Input is not counted, which makes
+     * this much cheaper than encode(byte[]) for small inputs. decode finds the dictionary
+     * by its id once it has been loaded.
+     */
+    public byte[] encode(byte[] input, HuffmanDictionary dictionary) {
+        long payload = (input.length * (long) dictionary.maxCodeLength() + 7) / 8;
+        ByteBuffer output = ByteBuffer.allocate((int) Math.min(HuffmanDictionary.MESSAGE_HEADER_BYTES + payload
+                + Container.CHECKSUM_BYTES, Integer.MAX_VALUE - 8));
+        output.put(HuffmanDictionary.MESSAGE_MAGIC).put((byte) HuffmanDictionary.VERSION)
+                .putInt(dictionary.id()).putInt(input.length);
+        BinaryOut out = new BinaryOut(new BufferOutputStream(output), messageBuffer(payload));
+        encodeStream(ByteBuffer.wrap(input), 0, input.length, dictionary.code(), out);
+        out.flush();
+        output.putInt(Container.checksum(output.array(), 0, output.position()));
+        return Arrays.copyOf(output.array(), output.position());
+    }
+
+    /**
+     * Encodes the remaining bytes of input into output, starting at its position.
+     * Both buffers are advanced past the bytes used.
+     *
+     * @return number of bytes written to output
+     * @throws BufferOverflowException if output has less room than the encoded data needs,
+     *                                 maxEncodedLength is always enough
+     */
+    public int encode(ByteBuffer input, ByteBuffer output) {
+        int start = output.position();
+        ByteBuffer data = input.slice();
+        CanonicalCode code = null;
+        ContextCode contextCode = null;
+        if (order == 1) {
+            long[] counts = new long[ContextCode.CONTEXTS * CanonicalCode.SYMBOLS];
+            for (int offset = 0; offset < data.limit(); offset += blockSize) //every block starts after a 0
+                ContextCode.count(data.slice(offset, Math.min(blockSize, data.limit() - offset)), counts);
+            contextCode = ContextCode.build(counts, this, false);
+            output.put(Container.header(data.remaining(), contextCode));
+        }
+        else {
+            code = code(count(data));
+            output.put(Container.header(data.remaining(), code, streams == 1 ? 0 : Container.FLAG_STREAMS));
+        }
+
+        BlockIndex index = new BlockIndex();
+        for (int offset = 0; offset < data.limit(); offset += blockSize) {
+            int length = Math.min(blockSize, data.limit() - offset);
+            int frame = output.position();
+            ByteBuffer block = data.slice(offset, length);
+            long bits;
+            if (contextCode != null ? !worthCoding(block, contextCode) : !worthCoding(block, code))
+                bits = storeFrame(block, output);
+            else
+                bits = contextCode != null ? encodeFrame(block, contextCode, output) : encodeFrame(block, code, output, streams);
+            index.add(frame - start, bits, length);
+        }
+        BinaryOut out = new BinaryOut(new BufferOutputStream(output));
+        index.write(out);
+        out.flush();
+        input.position(input.limit());
+        return output.position() - start;
+    }
+
+    public byte[] decode(byte[] encoded) throws IOException {
+        long length = decodedLength(ByteBuffer.wrap(encoded));
+        if (length < 0 || length > 8L * encoded.length) //every byte takes a bit at least, so the size is damaged
+            throw new IOException("Corrupt decoded size " + length);
+        if (length > Integer.MAX_VALUE - 8)
+            throw new IOException("Decoded data of " + length + " bytes does not fit in an array");
+        byte[] output = new byte[(int) length];
+        decode(ByteBuffer.wrap(encoded), ByteBuffer.wrap(output));
+        return output;
+    }
+
+    /**
+     * Decodes the encoded data starting at input's position into output, starting at its position.
+     * Every frame is checked before it is decoded. Both buffers are advanced past the bytes used.
+     *
+     * @return number of bytes written to output
+     * @throws IOException             if the encoded data is damaged or truncated
+     * @throws BufferOverflowException if output has less room than decodedLength
+     */
+    public int decode(ByteBuffer input, ByteBuffer output) throws IOException {
+        if (HuffmanDictionary.isMessage(input))
+            return decodeMessage(input, output);
+        ByteBuffer encoded = input.slice();
+        Container header = Container.readHeader(encoded);
+        if (header.originalSize() > output.remaining())
+            throw new BufferOverflowException();
+        HuffmanDecoder decoder = header.decoder();
+
+        //frames follow the header back to back, so the index at the end is not needed here
+        ByteBuffer target = output.slice(output.position(), (int) header.originalSize()); //a frame past the size overflows
+        int frames = 0;
+        encoded.position(header.length());
+        try {
+            for (; target.hasRemaining(); frames++)
+                decodeFrame(encoded, decoder, target, header.streams());
+        } catch (BufferOverflowException e) {
+            throw new IOException("Frames decode to more than the " + header.originalSize() + " bytes the header says");
+        }
+        if (encoded.remaining() < BlockIndex.length(frames))
+            throw new EOFException("Encoded data ended before the block index");
+        input.position(input.position() + encoded.position() + (int) BlockIndex.length(frames));
+        output.position(output.position() + target.position());
+        return target.position();
+    }
+
+    //Decodes a message encoded with a dictionary, which takes up all of input
+    private static int decodeMessage(ByteBuffer input, ByteBuffer output) throws IOException {
+        ByteBuffer message = input.slice();
+        int length = message.remaining() - Container.CHECKSUM_BYTES;
+        if (length < HuffmanDictionary.MESSAGE_HEADER_BYTES)
+            throw new EOFException("Encoded data is too short");
+        int version = message.get(HuffmanDictionary.MESSAGE_MAGIC.length);
+        if (version != HuffmanDictionary.VERSION)
+            throw new IOException("Unsupported version " + version);
+        if (Container.checksum(message, 0, length) != message.getInt(length))
+            throw new IOException("Message checksum mismatch");
+        HuffmanDictionary dictionary = HuffmanDictionary.get(message.getInt(HuffmanDictionary.MESSAGE_MAGIC.length + 1));
+        int size = message.getInt(HuffmanDictionary.MESSAGE_HEADER_BYTES - 4);
+        if (size < 0 || size > 8L * (length - HuffmanDictionary.MESSAGE_HEADER_BYTES)) //every code takes a bit at least
+            throw new IOException("Corrupt message size " + size);
+        if (size > output.remaining())
+            throw new BufferOverflowException();
+
+        BinaryIn in = new BinaryIn(new BufferInputStream(message.slice(HuffmanDictionary.MESSAGE_HEADER_BYTES,
+                length - HuffmanDictionary.MESSAGE_HEADER_BYTES)), messageBuffer(length - HuffmanDictionary.MESSAGE_HEADER_BYTES));
+        try {
+            if (output.hasArray()) {
+                dictionary.decoder().decode(in, output.array(), output.arrayOffset() + output.position(), size);
+                output.position(output.position() + size);
+            }
+            else {
+                byte[] buffer = buffer(blockBuffer, size);
+                dictionary.decoder().decode(in, buffer, 0, size);
+                output.put(buffer, 0, size);
+            }
+        } catch (IllegalArgumentException | NoSuchElementException e) { //passed the checksum, but was never valid
+            throw new IOException("Corrupt message", e);
+        }
+        input.position(input.limit());
+        return size;
+    }
+
+    //Symbol counts of the remaining bytes of block, leaving its position unchanged
+    static long[] count(ByteBuffer block) {
+        Histogram histogram = new Histogram();
+        histogram.add(block, block.position(), block.remaining());
+        return histogram.counts();
+    }
+
+    //Shortest code for frequency within this codec's code length limit
+    CanonicalCode code(long[] frequency) {
+        int[] lengths = new int[CanonicalCode.SYMBOLS];
+        int maxLength = codeLengths.get().compute(frequency, lengths); //only the code lengths of the tree are needed
+        if (maxLength > maxCodeLength) //too deep, find the best code within the limit instead
+            lengths = PackageMerge.lengths(frequency, maxCodeLength);
+        return new CanonicalCode(lengths);
+    }
+
+    //True if coding the remaining bytes of block with code is estimated to beat storing them
+    static boolean worthCoding(ByteBuffer block, CanonicalCode code) {
+        return worthCoding(block, code.lengths(), NO_CONTEXT);
+    }
+
+    static boolean worthCoding(ByteBuffer block, ContextCode code) {
+        return worthCoding(block, code.lengths(), code.clusters());
+    }
+
+    /*
+    Adds up the code lengths of a run of SAMPLE_RUN bytes every SAMPLE_STRIDE bytes, or of
+    every byte of a short block. That is a sixteenth of a large block, quick next to coding
+    it, and close enough since the code was built for the whole input.
+     */
+    private static boolean worthCoding(ByteBuffer block, int[] lengths, byte[] clusters) {
+        int start = block.position();
+        int length = block.remaining();
+        int stride = length < 16 * SAMPLE_STRIDE ? SAMPLE_RUN : SAMPLE_STRIDE;
+        long bits = 0;
+        long sampled = 0;
+        for (int run = 0; run < length; run += stride) {
+            int end = Math.min(run + SAMPLE_RUN, length);
+            int base = clusters[run == 0 ? 0 : block.get(start + run - 1) & 0xFF] << 8;
+            for (int i = run; i < end; i++) {
+                int s = block.get(start + i) & 0xFF;
+                bits += lengths[base | s];
+                base = clusters[s] << 8;
+            }
+            sampled += end - run;
+        }
+        return worthCoding(bits, sampled);
+    }
+
+    //True if bits of code for length bytes save at least 1/STORE_THRESHOLD of them
+    static boolean worthCoding(long bits, long length) {
+        return bits <= 8 * length - 8 * length / STORE_THRESHOLD;
+    }
+
+    /**
+     * Writes the remaining bytes of block as a stored frame at output's position, see
+     * Container. Block is left unchanged, output is advanced past the frame.
+     *
+     * @return the bit count of the frame, Container.STORED | 8 * size
+     */
+    static long storeFrame(ByteBuffer block, ByteBuffer output) {
+        int start = output.position();
+        int length = block.remaining();
+        long bits = Container.STORED | 8L * length;
+        output.position(start + Container.FRAME_HEADER_BYTES);
+        output.put(block.slice()); //bulk copy
+        finishFrame(output, start, length, bits);
+        return bits;
+    }
+
+    /**
+     * Encodes the remaining bytes of block as one frame at output's position, see Container.
+     * Block is left unchanged, output is advanced past the frame. A block the code would
+     * make larger is stored instead.
+     *
+     * With HuffmanDecoder.STREAMS streams the payload is a jump table followed by the
+     * streams, each padded to a whole byte, see HuffmanDecoder.decodeStreams. The bit
+     * count of such a frame covers all of its payload.
+     *
+     * @return number of payload bits in the frame
+     */
+    static long encodeFrame(ByteBuffer block, CanonicalCode code, ByteBuffer output, int streams) {
+        int start = output.position();
+        int length = block.remaining();
+        output.position(start + Container.FRAME_HEADER_BYTES); //filled in once the bit count is known
+        BinaryOut out = new BinaryOut(new BufferOutputStream(output));
+        long bits;
+        if (streams == 1) {
+            bits = encodeStream(block, 0, length, code, out);
+            out.flush();
+        }
+        else {
+            int jump = output.position();
+            output.position(jump + HuffmanDecoder.JUMP_TABLE_BYTES);
+            int segment = (length + streams - 1) / streams;
+            for (int k = 0; k < streams; k++) {
+                int stream = output.position();
+                encodeStream(block, k * segment, HuffmanDecoder.symbols(length, segment, k), code, out);
+                out.flush(); //every stream starts on a byte boundary
+                if (k < streams - 1)
+                    output.putInt(jump + 4 * k, output.position() - stream);
+            }
+            bits = 8L * (output.position() - jump);
+        }
+        if (bits >= 8L * length) { //worthCoding guessed wrong
+            output.position(start);
+            return storeFrame(block, output);
+        }
+        finishFrame(output, start, length, bits);
+        return bits;
+    }
+
+    /**
+     * Encodes the remaining bytes of block as one frame of an order-1 code, see encodeFrame.
+     * The first byte is coded as if it followed a 0.
+     */
+    static long encodeFrame(ByteBuffer block, ContextCode code, ByteBuffer output) {
+        int start = output.position();
+        int length = block.remaining();
+        output.position(start + Container.FRAME_HEADER_BYTES);
+        BinaryOut out = new BinaryOut(new BufferOutputStream(output));
+        long[] codes = code.codes();
+        int[] lengths = code.lengths();
+        byte[] clusters = code.clusters();
+        byte[] buffer = chunk.get();
+        long bits = 0;
+        int base = clusters[0] << 8;
+        for (int done = 0; done < length; done += buffer.length) {
+            int n = Math.min(buffer.length, length - done);
+            block.get(block.position() + done, buffer, 0, n);
+            for (int i = 0; i < n; i++) {
+                int s = buffer[i] & 0xFF;
+                out.writeBits(codes[base | s], lengths[base | s]);
+                bits += lengths[base | s];
+                base = clusters[s] << 8;
+            }
+        }
+        out.flush();
+        if (bits >= 8L * length) {
+            output.position(start);
+            return storeFrame(block, output);
+        }
+        finishFrame(output, start, length, bits);
+        return bits;
+    }
+
+    //Fills in the header of the frame at start, now that its bit count is known, and appends its checksum
+    private static void finishFrame(ByteBuffer output, int start, int length, long bits) {
+        output.putInt(start, length).putLong(start + 4, bits);
+        output.putInt(Container.checksum(output, start, output.position() - start));
+    }
+
+    //Writes the codes of count bytes of block from offset, returns the number of bits written
+    private static long encodeStream(ByteBuffer block, int offset, int count, CanonicalCode code, BinaryOut out) {
+        long[] codes = code.codes();
+        int[] lengths = code.lengths();
+        byte[] buffer = chunk.get();
+        long bits = 0;
+        for (int done = 0; done < count; done += buffer.length) {
+            int n = Math.min(buffer.length, count - done);
+            block.get(block.position() + offset + done, buffer, 0, n); //bulk copy, also from mapped and direct buffers
+            for (int i = 0; i < n; i++) {
+                int s = buffer[i] & 0xFF;
+                out.writeBits(codes[s], lengths[s]); //whole code in one call
+                bits += lengths[s];
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Checks the frame at encoded's position and decodes it into output at its position.
+     * Both buffers are advanced past the bytes used. A stored frame is copied as it is and
+     * does not need a decoder.
+     *
+     * @param streams bitstreams in the frame, 1 or HuffmanDecoder.STREAMS
+     * @throws IOException if the frame is damaged or truncated
+     */
+    static void decodeFrame(ByteBuffer encoded, HuffmanDecoder decoder, ByteBuffer output, int streams) throws IOException {
+        decodeFrame(encoded, decoder, output, streams, encoded.position());
+    }
+
+    /**
+     * As above, for a frame copied out of a file: errors name position, the offset of the
+     * frame in the file, instead of its position in encoded.
+     */
+    static void decodeFrame(ByteBuffer encoded, HuffmanDecoder decoder, ByteBuffer output, int streams,
+                            long position) throws IOException {
+        int start = encoded.position();
+        if (encoded.remaining() < Container.FRAME_HEADER_BYTES + Container.CHECKSUM_BYTES)
+            throw new EOFException("Encoded data ended at " + encoded.limit());
+        int size = encoded.getInt(start);
+        long bits = encoded.getLong(start + 4);
+        boolean stored = Container.isStored(bits);
+        if (size <= 0 || Container.bitCount(bits) > 8L * (encoded.remaining() - Container.FRAME_HEADER_BYTES - Container.CHECKSUM_BYTES)
+                || stored && Container.bitCount(bits) != 8L * size)
+            throw new IOException("Corrupt frame at offset " + position);
+        int length = Container.frameLength(bits);
+        Container.checkFrame(encoded, start, length, position);
+        if (size > output.remaining())
+            throw new BufferOverflowException();
+
+        ByteBuffer payload = encoded.slice(start + Container.FRAME_HEADER_BYTES,
+                length - Container.FRAME_HEADER_BYTES - Container.CHECKSUM_BYTES);
+        try {
+            if (stored)
+                output.put(payload);
+            else if (streams != 1 || decoder.hasContext()) { //decoded in one call into one array
+                byte[] target = output.hasArray() ? output.array() : buffer(blockBuffer, size);
+                int offset = output.hasArray() ? output.arrayOffset() + output.position() : 0;
+                if (streams != 1)
+                    decoder.decodeStreams(payload, target, offset, size);
+                else
+                    decoder.decode(new BinaryIn(new BufferInputStream(payload)), target, offset, size);
+                if (output.hasArray())
+                    output.position(output.position() + size);
+                else
+                    output.put(target, 0, size);
+            }
+            else if (output.hasArray()) {
+                decoder.decode(new BinaryIn(new BufferInputStream(payload)), output.array(),
+                        output.arrayOffset() + output.position(), size);
+                output.position(output.position() + size);
+            }
+            else { //direct buffer, decode a chunk at a time
+                BinaryIn in = new BinaryIn(new BufferInputStream(payload));
+                byte[] buffer = chunk.get();
+                for (int offset = 0; offset < size; offset += buffer.length) {
+                    int n = Math.min(buffer.length, size - offset);
+                    decoder.decode(in, buffer, 0, n);
+                    output.put(buffer, 0, n);
+                }
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | NoSuchElementException e) { //passed the checksum, but was never valid
+            throw new IOException("Corrupt frame at offset " + position, e);
+        }
+        encoded.position(start + length);
+    }
+
+    //This thread's buffer from local, grown to at least length bytes
+    static byte[] buffer(ThreadLocal<byte[]> local, int length) {
+        byte[] buffer = local.get();
+        if (buffer.length < length) {
+            buffer = new byte[length];
+            local.set(buffer);
+        }
+        return buffer;
+    }
+
+    /*
+    This thread's buffer for the BinaryIn or BinaryOut of a message with payload bytes of
+    code. Messages are mostly a few hundred bytes, so this is much smaller than the chunk
+    those classes would allocate for themselves.
+     */
+    private static byte[] messageBuffer(long payload) {
+        return buffer(messageBuffer, (int) Math.max(8, Math.min(CHUNK_SIZE, payload)));
+    }
+
+    //Writes to a ByteBuffer, throwing BufferOverflowException when it is full
+    private static class BufferOutputStream extends OutputStream {
+        private final ByteBuffer buffer;
+
+        BufferOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.put(b, off, len);
+        }
+    }
+
+    //Reads the remaining bytes of a ByteBuffer
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Table driven Huffman decoder. Instead of walking the tree one bit at a time,
+ * the next PRIMARY_BITS bits of the stream are used as an index into a lookup
+ * table that gives the decoded symbol and its code length in one step.
+ * Codes longer than PRIMARY_BITS continue into secondary tables.
+ *
+ * A payload can also hold STREAMS interleaved streams, see HuffmanCodec. Those are
+ * decoded in one loop with a bit position per stream, so the CPU can work on four
+ * lookups at once instead of waiting for each code length before the next lookup.
+ *
+ * For an order-1 code (see ContextCode) there is a primary table per cluster, and the
+ * byte just decoded picks the table for the next one.
+ */
+class HuffmanDecoder {
+    static final int PRIMARY_BITS = 12;
+    static final int STREAMS = 4;
+    static final int JUMP_TABLE_BYTES = 4 * (STREAMS - 1); //byte length of every stream but the last
+
+    private static final int LINK = 0x80000000; //entry points to a secondary table
+
+    /*
+    Every table entry is an int, either
+        leaf: symbol << 8 | number of bits consumed at this level
+        link: LINK | offset of secondary table << 5 | index bits of secondary table
+    0 marks a bit pattern that is not the prefix of any code.
+     */
+    private int[] table;
+    private int size; //number of entries used in table
+    private final int[] contextBase; //primary table after each byte, null for an order-0 code
+
+    /**
+     * @param codes   code of each symbol, right aligned
+     * @param lengths code length of each symbol, 0 if the symbol is not used
+     */
+    HuffmanDecoder(long[] codes, int[] lengths) {
+        table = new int[1 << PRIMARY_BITS];
+        size = 1 << PRIMARY_BITS;
+        build(codes, lengths, 0, 0, 0, PRIMARY_BITS);
+        contextBase = null;
+    }
+
+    HuffmanDecoder(ContextCode code) {
+        int clusters = code.clusterCount();
+        table = new int[clusters << PRIMARY_BITS];
+        size = clusters << PRIMARY_BITS;
+        for (int k = 0; k < clusters; k++)
+            build(code.code(k).codes(), code.code(k).lengths(), k << PRIMARY_BITS, 0, 0, PRIMARY_BITS);
+        contextBase = new int[ContextCode.CONTEXTS];
+        for (int c = 0; c < ContextCode.CONTEXTS; c++)
+            contextBase[c] = code.clusters()[c] << PRIMARY_BITS;
+    }
+
+    //True if each symbol depends on the one before, so a block must be decoded in one call
+    boolean hasContext() {
+        return contextBase != null;
+    }
+
+    //Fill the table at offset for all codes starting with the given prefix of prefixLength bits
+    private void build(long[] codes, int[] lengths, int offset, long prefix, int prefixLength, int bits) {
+        for (int s = 0; s < lengths.length; s++) {
+            int length = lengths[s];
+            if (length <= prefixLength || (codes[s] >>> (length - prefixLength)) != prefix)
+                continue;
+            int rest = length - prefixLength;
+            if (rest <= bits) {
+                //every index starting with the remaining code bits decodes to s
+                int first = (int) (codes[s] & ((1L << rest) - 1)) << (bits - rest);
+                for (int i = first; i < first + (1 << (bits - rest)); i++)
+                    table[offset + i] = (s << 8) | rest;
+            }
+            else {
+                int index = (int) ((codes[s] >>> (rest - bits)) & ((1 << bits) - 1));
+                if (table[offset + index] != 0)
+                    continue; //secondary table already built for this prefix
+                long subPrefix = codes[s] >>> (rest - bits);
+                int subPrefixLength = prefixLength + bits;
+                int subBits = 0;
+                for (int t = 0; t < lengths.length; t++) {
+                    if (lengths[t] > subPrefixLength && (codes[t] >>> (lengths[t] - subPrefixLength)) == subPrefix)
+                        subBits = Math.max(subBits, lengths[t] - subPrefixLength);
+                }
+                subBits = Math.min(subBits, PRIMARY_BITS);
+                int subOffset = allocate(1 << subBits);
+                table[offset + index] = LINK | (subOffset << 5) | subBits;
+                build(codes, lengths, subOffset, subPrefix, subPrefixLength, subBits);
+            }
+        }
+    }
+
+    private int allocate(int entries) {
+        if (size + entries > table.length) {
+            int[] grown = new int[Math.max(table.length * 2, size + entries)];
+            System.arraycopy(table, 0, grown, 0, size);
+            table = grown;
+        }
+        size += entries;
+        return size - entries;
+    }
+
+    /**
+     * Decodes the next length symbols of in into output, starting at offset.
+     *
+     * @throws IllegalArgumentException if in holds a bit pattern that is not a code
+     * @throws java.util.NoSuchElementException if in ends before length symbols
+     */
+    void decode(BinaryIn in, byte[] output, int offset, int length) {
+        if (contextBase != null) {
+            decodeContext(in, output, offset, length);
+            return;
+        }
+        final int[] table = this.table;
+        for (int i = offset; i < offset + length; i++) {
+            int window = in.peekBits(32); //enough for the longest code
+            int entry = table[window >>> (32 - PRIMARY_BITS)];
+            int consumed = 0;
+            int bits = PRIMARY_BITS;
+            while (entry < 0) { //follow links into secondary tables
+                consumed += bits;
+                bits = entry & 0x1F;
+                entry = table[((entry & ~LINK) >>> 5) + ((window << consumed) >>> (32 - bits))];
+            }
+            if (entry == 0)
+                throw new IllegalArgumentException("Invalid code " + Integer.toBinaryString(window));
+            in.skipBits(consumed + (entry & 0xFF));
+            output[i] = (byte) (entry >>> 8);
+        }
+    }
+
+    //decode for an order-1 code, the first symbol follows a 0
+    private void decodeContext(BinaryIn in, byte[] output, int offset, int length) {
+        final int[] table = this.table;
+        final int[] contextBase = this.contextBase;
+        int base = contextBase[0];
+        for (int i = offset; i < offset + length; i++) {
+            int window = in.peekBits(32);
+            int entry = table[base + (window >>> (32 - PRIMARY_BITS))];
+            int consumed = 0;
+            int bits = PRIMARY_BITS;
+            while (entry < 0) {
+                consumed += bits;
+                bits = entry & 0x1F;
+                entry = table[((entry & ~LINK) >>> 5) + ((window << consumed) >>> (32 - bits))];
+            }
+            if (entry == 0)
+                throw new IllegalArgumentException("Invalid code " + Integer.toBinaryString(window));
+            in.skipBits(consumed + (entry & 0xFF));
+            output[i] = (byte) (entry >>> 8);
+            base = contextBase[entry >>> 8];
+        }
+    }
+
+    /**
+     * Decodes a payload of STREAMS streams holding length symbols into output, starting at offset.
+     * Stream k holds the k-th quarter of the symbols (rounded up, the last one takes the rest)
+     * and starts on a byte boundary; the payload starts with a jump table of the byte lengths
+     * of the first STREAMS - 1 streams.
+     *
+     * @throws IllegalArgumentException if payload holds a bit pattern that is not a code
+     * @throws IndexOutOfBoundsException if a stream ends before its symbols
+     */
+    void decodeStreams(ByteBuffer payload, byte[] output, int offset, int length) {
+        ByteBuffer in = payload.slice();
+        int segment = (length + STREAMS - 1) / STREAMS;
+        long p0 = 8L * JUMP_TABLE_BYTES; //bit position of each stream
+        long p1 = p0 + 8L * in.getInt(0);
+        long p2 = p1 + 8L * in.getInt(4);
+        long p3 = p2 + 8L * in.getInt(8);
+        if (p1 < p0 || p2 < p1 || p3 < p2 || p3 > 8L * in.limit())
+            throw new IllegalArgumentException("Corrupt jump table");
+        int o0 = offset;
+        int o1 = offset + segment;
+        int o2 = o1 + segment;
+        int o3 = o2 + segment;
+        int last = Math.max(0, length - 3 * segment); //symbols in the last stream, the shortest
+
+        //while 8 bytes can be read at the last, and so furthest, stream all four go together
+        final int[] table = this.table;
+        final int end = in.limit() - 8;
+        int i = 0;
+        for (; i < last && (p3 >>> 3) <= end; i++) {
+            int e0 = table[(int) ((in.getLong((int) (p0 >>> 3)) << (p0 & 7)) >>> (64 - PRIMARY_BITS))];
+            int e1 = table[(int) ((in.getLong((int) (p1 >>> 3)) << (p1 & 7)) >>> (64 - PRIMARY_BITS))];
+            int e2 = table[(int) ((in.getLong((int) (p2 >>> 3)) << (p2 & 7)) >>> (64 - PRIMARY_BITS))];
+            int e3 = table[(int) ((in.getLong((int) (p3 >>> 3)) << (p3 & 7)) >>> (64 - PRIMARY_BITS))];
+            if ((e0 | e1 | e2 | e3) < 0 || e0 == 0 || e1 == 0 || e2 == 0 || e3 == 0) { //a long or invalid code
+                p0 = decodeStream(in, p0, output, o0++, 1);
+                p1 = decodeStream(in, p1, output, o1++, 1);
+                p2 = decodeStream(in, p2, output, o2++, 1);
+                p3 = decodeStream(in, p3, output, o3++, 1);
+                continue;
+            }
+            output[o0++] = (byte) (e0 >>> 8);
+            output[o1++] = (byte) (e1 >>> 8);
+            output[o2++] = (byte) (e2 >>> 8);
+            output[o3++] = (byte) (e3 >>> 8);
+            p0 += e0 & 0xFF;
+            p1 += e1 & 0xFF;
+            p2 += e2 & 0xFF;
+            p3 += e3 & 0xFF;
+        }
+        decodeStream(in, p0, output, o0, symbols(length, segment, 0) - i);
+        decodeStream(in, p1, output, o1, symbols(length, segment, 1) - i);
+        decodeStream(in, p2, output, o2, symbols(length, segment, 2) - i);
+        decodeStream(in, p3, output, o3, last - i);
+    }
+
+    //Number of the length symbols of a block that are in stream k
+    static int symbols(int length, int segment, int k) {
+        return Math.max(0, Math.min(segment, length - k * segment));
+    }
+
+    //Decodes count symbols from the bit position of in into output at offset, returns the position after them
+    long decodeStream(ByteBuffer in, long position, byte[] output, int offset, int count) {
+        int end = in.limit() - 8;
+        for (int i = offset; i < offset + count; i++) {
+            int window = (position >>> 3) <= end ? (int) ((in.getLong((int) (position >>> 3)) << (position & 7)) >>> 32)
+                    : window(in, position);
+            int entry = table[window >>> (32 - PRIMARY_BITS)];
+            int consumed = 0;
+            int bits = PRIMARY_BITS;
+            while (entry < 0) { //follow links into secondary tables
+                consumed += bits;
+                bits = entry & 0x1F;
+                entry = table[((entry & ~LINK) >>> 5) + ((window << consumed) >>> (32 - bits))];
+            }
+            if (entry == 0)
+                throw new IllegalArgumentException("Invalid code " + Integer.toBinaryString(window));
+            output[i] = (byte) (entry >>> 8);
+            position += consumed + (entry & 0xFF);
+        }
+        return position;
+    }
+
+    //32 bits from the bit position of in, zero padded past its end
+    private static int window(ByteBuffer in, long position) {
+        long bytes = 0;
+        int first = (int) (position >>> 3);
+        for (int i = 0; i < 5; i++)
+            bytes = (bytes << 8) | (first + i < in.limit() ? in.get(first + i) & 0xFF : 0);
+        return (int) (bytes << (24 + (position & 7)) >>> 32);
+    }
+}
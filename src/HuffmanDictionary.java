@@ -0,0 +1,163 @@
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A code trained on sample data, for payloads too small to carry their own code.
+ * A message encoded with a dictionary (see HuffmanCodec.encode(byte[], HuffmanDictionary))
+ * names it by id instead of storing code lengths, and skips counting its input.
+ *
+ * Every byte value gets a code, also those missing from the samples, so any input can be
+ * encoded; bytes that are rare in the samples just take more bits.
+ *
+ * <pre>
+ * dictionary  magic "HUFD" (4), version (1), id (4), code lengths (see CanonicalCode),
+ *             CRC32C of the dictionary so far (4)
+ * message     magic "HUFM" (4), version (1), dictionary id (4), decoded size (4),
+ *             payload zero padded to a whole byte, CRC32C of the message so far (4)
+ * </pre>
+ * A message has no length of its own, it takes up all of the encoded data handed to the
+ * decoder; framing several messages is left to whatever carries them.
+ *
+ * Loaded dictionaries are kept in memory with their decode tables built, so a file is
+ * only read once and messages find their dictionary by id. Dictionaries are immutable
+ * and can be shared by any number of threads.
+ */
+public final class HuffmanDictionary {
+    static final byte[] MAGIC = {'H', 'U', 'F', 'D'};
+    static final byte[] MESSAGE_MAGIC = {'H', 'U', 'F', 'M'};
+    static final int VERSION = 1;
+    static final int MESSAGE_HEADER_BYTES = MESSAGE_MAGIC.length + 1 + 4 + 4;
+
+    private static final int FIXED_HEADER_BYTES = MAGIC.length + 1 + 4;
+    private static final ConcurrentHashMap<Integer, HuffmanDictionary> byId = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Path, HuffmanDictionary> byFile = new ConcurrentHashMap<>();
+
+    private final int id;
+    private final CanonicalCode code;
+    private final HuffmanDecoder decoder;
+    private final int maxCodeLength;
+
+    private HuffmanDictionary(int id, CanonicalCode code) {
+        this.id = id;
+        this.code = code;
+        this.decoder = new HuffmanDecoder(code.codes(), code.lengths());
+        this.maxCodeLength = Arrays.stream(code.lengths()).max().orElse(0);
+    }
+
+    /**
+     * Builds a dictionary from the byte frequencies of samples, with codes of at most
+     * HuffmanDecoder.PRIMARY_BITS bits.
+     *
+     * Messages encoded with it can be decoded once it has been saved and loaded.
+     *
+     * @param id number stored in every message encoded with the dictionary
+     */
+    public static HuffmanDictionary train(int id, Iterable<byte[]> samples) {
+        Histogram histogram = new Histogram();
+        for (byte[] sample : samples)
+            histogram.add(sample, 0, sample.length);
+        long[] frequency = histogram.counts();
+        for (int s = 0; s < frequency.length; s++)
+            frequency[s]++; //bytes missing from the samples still need a code
+        return new HuffmanDictionary(id, new HuffmanCodec().code(frequency));
+    }
+
+    public int id() {
+        return id;
+    }
+
+    CanonicalCode code() {
+        return code;
+    }
+
+    HuffmanDecoder decoder() {
+        return decoder;
+    }
+
+    int maxCodeLength() {
+        return maxCodeLength;
+    }
+
+    public void save(Path file) throws IOException {
+        byte[] lengths = code.header();
+        ByteBuffer dictionary = ByteBuffer.allocate(FIXED_HEADER_BYTES + lengths.length + Container.CHECKSUM_BYTES);
+        dictionary.put(MAGIC).put((byte) VERSION).putInt(id).put(lengths);
+        dictionary.putInt(Container.checksum(dictionary.array(), 0, dictionary.position()));
+        Files.write(file, dictionary.array());
+    }
+
+    /**
+     * Reads a dictionary file, or returns the one already loaded from it. The dictionary
+     * can then be found by its id.
+     *
+     * @throws IOException if the file is damaged, or another dictionary with the same id is loaded
+     */
+    public static HuffmanDictionary load(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        HuffmanDictionary cached = byFile.get(key);
+        if (cached != null)
+            return cached;
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buffer.remaining() < FIXED_HEADER_BYTES + CanonicalCode.SYMBOLS / 8 + Container.CHECKSUM_BYTES)
+            throw new EOFException(file + " is too short for a dictionary");
+        for (byte b : MAGIC) {
+            if (buffer.get() != b)
+                throw new IOException(file + " is not a Huffman dictionary");
+        }
+        int version = buffer.get();
+        if (version != VERSION)
+            throw new IOException("Unsupported dictionary version " + version);
+        int id = buffer.getInt();
+        int length = buffer.limit() - Container.CHECKSUM_BYTES;
+        if (Container.checksum(buffer.array(), 0, length) != buffer.getInt(length))
+            throw new IOException("Dictionary checksum mismatch in " + file);
+        CanonicalCode code;
+        try {
+            code = CanonicalCode.readHeader(new BinaryIn(new ByteArrayInputStream(buffer.array(), FIXED_HEADER_BYTES,
+                    length - FIXED_HEADER_BYTES)));
+        } catch (IllegalArgumentException | NoSuchElementException e) { //passed the checksum, but was never valid
+            throw new IOException("Corrupt dictionary " + file, e);
+        }
+
+        HuffmanDictionary dictionary = new HuffmanDictionary(id, code);
+        HuffmanDictionary existing = byId.putIfAbsent(id, dictionary);
+        if (existing != null) {
+            if (!Arrays.equals(existing.code.lengths(), code.lengths()))
+                throw new IOException("Another dictionary with id " + id + " is already loaded");
+            dictionary = existing;
+        }
+        byFile.put(key, dictionary);
+        return dictionary;
+    }
+
+    /**
+     * The loaded dictionary with the given id.
+     *
+     * @throws IOException if no dictionary with that id has been loaded
+     */
+    static HuffmanDictionary get(int id) throws IOException {
+        HuffmanDictionary dictionary = byId.get(id);
+        if (dictionary == null)
+            throw new IOException("Dictionary " + id + " is not loaded");
+        return dictionary;
+    }
+
+    //Whether encoded, from its position, starts like a message encoded with a dictionary
+    static boolean isMessage(ByteBuffer encoded) {
+        if (encoded.remaining() < MESSAGE_MAGIC.length)
+            return false;
+        for (int i = 0; i < MESSAGE_MAGIC.length; i++) {
+            if (encoded.get(encoded.position() + i) != MESSAGE_MAGIC[i])
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,80 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one encode or decode, see HuffmanStats. Record with
+ * java -XX:StartFlightRecording:filename=huffman.jfr ... and look for huffman.Codec.
+ */
+@Name("huffman.Codec")
+@Label("Huffman Codec")
+@Category("Huffman")
+@Description("One file encoded or decoded, with the time of each phase")
+@StackTrace(false)
+class HuffmanEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("File")
+    String file;
+
+    @Label("Bytes In")
+    @DataAmount(DataAmount.BYTES)
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount(DataAmount.BYTES)
+    long bytesOut;
+
+    @Label("Histogram")
+    @Timespan(Timespan.NANOSECONDS)
+    long histogram;
+
+    @Label("Build")
+    @Timespan(Timespan.NANOSECONDS)
+    long build;
+
+    @Label("Encode")
+    @Timespan(Timespan.NANOSECONDS)
+    long encode;
+
+    @Label("Decode")
+    @Timespan(Timespan.NANOSECONDS)
+    long decode;
+
+    @Label("Flush")
+    @Timespan(Timespan.NANOSECONDS)
+    long flush;
+
+    @Label("Entropy")
+    @Description("Bits per byte of an ideal code for the byte frequencies")
+    double entropy;
+
+    @Label("Bits per Symbol")
+    @Description("Code bits spent per byte")
+    double bitsPerSymbol;
+
+    @Label("Stored")
+    @Description("Bytes of blocks stored as they are, because coding would not have saved enough")
+    @DataAmount(DataAmount.BYTES)
+    long storedBytes;
+
+    @Label("Reader Wait")
+    @Description("Time the pipeline reader waited for a free buffer, the coders or the writer being behind")
+    @Timespan(Timespan.NANOSECONDS)
+    long readerWait;
+
+    @Label("Coder Wait")
+    @Description("Time the pipeline coders waited for input, summed over coders, the reader being behind")
+    @Timespan(Timespan.NANOSECONDS)
+    long coderWait;
+
+    @Label("Writer Wait")
+    @Description("Time the pipeline writer waited for the next block to be coded")
+    @Timespan(Timespan.NANOSECONDS)
+    long writerWait;
+}
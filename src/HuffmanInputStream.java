@@ -0,0 +1,115 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Decompresses a stream written by HuffmanOutputStream, one block at a time. Every block
+ * is checked against its checksums before any of it is returned. Reading stops at the end
+ * marker, so data following the compressed stream is left unread in the underlying stream.
+ */
+public class HuffmanInputStream extends InputStream {
+    private static final int MAX_BLOCK_SIZE = 1 << 30; //larger sizes can only come from damaged data
+
+    private final DataInputStream in;
+    private ByteBuffer frame = ByteBuffer.allocate(0); //the encoded block
+    private ByteBuffer block = ByteBuffer.allocate(0); //the decoded block, read from its position
+    private boolean ended;
+
+    public HuffmanInputStream(InputStream in) throws IOException {
+        this.in = new DataInputStream(in);
+        byte[] magic = new byte[HuffmanOutputStream.MAGIC.length + 1];
+        this.in.readFully(magic);
+        for (int i = 0; i < HuffmanOutputStream.MAGIC.length; i++) {
+            if (magic[i] != HuffmanOutputStream.MAGIC[i])
+                throw new IOException("Not a Huffman compressed stream");
+        }
+        if (magic[magic.length - 1] != HuffmanOutputStream.VERSION)
+            throw new IOException("Unsupported version " + magic[magic.length - 1]);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!block.hasRemaining() && !readBlock())
+            return -1;
+        return block.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!block.hasRemaining() && !readBlock())
+            return -1;
+        int n = Math.min(len, block.remaining());
+        block.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return block.remaining();
+    }
+
+    //Decode the next block, false at the end of the stream
+    private boolean readBlock() throws IOException {
+        while (!ended) {
+            int type = in.read();
+            if (type == HuffmanOutputStream.END) {
+                ended = true;
+                break;
+            }
+            if (type != HuffmanOutputStream.HUFFMAN && type != HuffmanOutputStream.STORED)
+                throw type < 0 ? new EOFException("Stream ended without an end marker")
+                        : new IOException("Unknown block type " + type);
+            boolean stored = type == HuffmanOutputStream.STORED;
+            HuffmanDecoder decoder = stored ? null : readCode(type);
+
+            //frame header first, it gives the length of the rest
+            byte[] header = new byte[Container.FRAME_HEADER_BYTES];
+            in.readFully(header);
+            int size = ByteBuffer.wrap(header).getInt(0);
+            long bits = ByteBuffer.wrap(header).getLong(4);
+            if (size <= 0 || size > MAX_BLOCK_SIZE || Container.isStored(bits) != stored
+                    || Container.bitCount(bits) > (long) size * CanonicalCode.MAX_CODE_LENGTH)
+                throw new IOException("Corrupt block of " + size + " bytes in " + Container.bitCount(bits) + " bits");
+            int length = Container.frameLength(bits);
+            if (frame.capacity() < length)
+                frame = ByteBuffer.allocate(length);
+            frame.clear().put(header);
+            in.readFully(frame.array(), header.length, length - header.length);
+            frame.position(0).limit(length);
+
+            if (block.capacity() < size)
+                block = ByteBuffer.allocate(size);
+            block.clear();
+            HuffmanCodec.decodeFrame(frame, decoder, block, 1);
+            block.flip();
+            return true;
+        }
+        return false;
+    }
+
+    //Reads the code lengths of a block of type HUFFMAN, whose length follows from the symbol bitmap at their start
+    private HuffmanDecoder readCode(int type) throws IOException {
+        byte[] table = new byte[1 + CanonicalCode.headerLength(CanonicalCode.SYMBOLS) + Container.CHECKSUM_BYTES];
+        table[0] = (byte) type;
+        in.readFully(table, 1, CanonicalCode.SYMBOLS / 8);
+        int present = 0;
+        for (int i = 1; i <= CanonicalCode.SYMBOLS / 8; i++)
+            present += Integer.bitCount(table[i] & 0xFF);
+        int lengths = CanonicalCode.headerLength(present);
+        in.readFully(table, 1 + CanonicalCode.SYMBOLS / 8, lengths - CanonicalCode.SYMBOLS / 8 + Container.CHECKSUM_BYTES);
+        if (Container.checksum(table, 0, 1 + lengths) != ByteBuffer.wrap(table).getInt(1 + lengths))
+            throw new IOException("Code table checksum mismatch");
+        CanonicalCode code = CanonicalCode.readHeader(new BinaryIn(new ByteArrayInputStream(table, 1, lengths)));
+        return new HuffmanDecoder(code.codes(), code.lengths());
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -1,178 +1,993 @@
 import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class HuffmanMain implements Huffman {
-    private Queue<HuffmanNode> queue;
-    private Map<Integer, String> huffCodeMap; //byte to huffman code
-    private Map<Integer, Integer> frequency; //byte to frequency
-    private int totalOutputBits = 0;
-    HuffmanMain() {
-        queue = new PriorityQueue<>();
-        huffCodeMap = new HashMap<>();
-        frequency = new HashMap<>();
-    }
-
-    private void scanFrequency(String inputFile) {
-        File file = new File(inputFile);
+    private static final long IN_MEMORY_LIMIT = 64 << 20; //larger batch files are coded in blocks, see batch
+    private static final int SAMPLE_CHUNK = 1 << 16; //most bytes read at each sampled position
+    private static final int MIN_SAMPLE_CHUNK = 1 << 12; //chunks shrink to this for at least SAMPLE_CHUNKS of them
+    private static final int SAMPLE_CHUNKS = 64;
+
+    private int threads = Runtime.getRuntime().availableProcessors(); //workers counting and encoding blocks
+    private int blockSize = HuffmanCodec.DEFAULT_BLOCK_SIZE; //input bytes per block
+    private int maxCodeLength = HuffmanCodec.DEFAULT_MAX_CODE_LENGTH;
+    private int streams = 1; //bitstreams per block
+    private int order = 0; //1 to code every byte with a code chosen by the byte before it, see ContextCode
+    private double sample = 1; //fraction of the input counted for the code, see sampleFrequency
+    private int pipelineDepth = 0; //buffers of the pipelined engine, 0 to map the input instead, see Pipeline
+    private HuffmanDictionary dictionary; //encode whole files as messages with this code, null to count them
+    private String statsFile; //append a JSON line of HuffmanStats per file here, "-" for standard error
+    private HuffmanStats stats; //of the last file encoded or decoded
+    private final ThreadLocal<byte[]> blockBuffer = ThreadLocal.withInitial(() -> new byte[0]); //per worker input buffer
+    private final ThreadLocal<byte[]> decodeBuffer = ThreadLocal.withInitial(() -> new byte[0]); //per worker output buffer
+
+    void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Illegal thread count " + threads);
+        this.threads = threads;
+    }
+
+    void setBlockSize(int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("Illegal block size " + blockSize);
+        HuffmanCodec.checkBlockSize(blockSize, maxCodeLength);
+        this.blockSize = blockSize;
+    }
+
+    void setMaxCodeLength(int maxCodeLength) {
+        if (maxCodeLength < 8 || maxCodeLength > CanonicalCode.MAX_CODE_LENGTH) //8 bits fit all 256 symbols
+            throw new IllegalArgumentException("Illegal maximum code length " + maxCodeLength);
+        HuffmanCodec.checkBlockSize(blockSize, maxCodeLength); //-block may come first
+        this.maxCodeLength = maxCodeLength;
+    }
+
+    void setStreams(int streams) {
+        if (streams != 1 && streams != HuffmanDecoder.STREAMS)
+            throw new IllegalArgumentException("Illegal stream count " + streams);
+        this.streams = streams;
+    }
+
+    void setOrder(int order) {
+        if (order != 0 && order != 1)
+            throw new IllegalArgumentException("Illegal order " + order);
+        this.order = order;
+    }
+
+    void setSample(double sample) {
+        if (!(sample > 0 && sample <= 1))
+            throw new IllegalArgumentException("Illegal sample fraction " + sample);
+        this.sample = sample;
+    }
+
+    void setPipelineDepth(int pipelineDepth) {
+        if (pipelineDepth < 0)
+            throw new IllegalArgumentException("Illegal pipeline depth " + pipelineDepth);
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    //Codec with these settings, for files coded in memory
+    private HuffmanCodec codec() {
+        return new HuffmanCodec(blockSize, maxCodeLength, streams, order);
+    }
+
+    void setDictionary(HuffmanDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    void setStatsFile(String statsFile) {
+        this.statsFile = statsFile;
+    }
+
+    HuffmanStats stats() {
+        return stats;
+    }
+
+    //Finishes stats, keeps them as the last file's and, if write, writes them to statsFile
+    private synchronized void report(HuffmanStats stats, boolean write) throws IOException {
+        stats.finish();
+        this.stats = stats;
+        if (statsFile == null || !write)
+            return;
+        String line = stats.toJson() + System.lineSeparator();
+        if (statsFile.equals("-"))
+            System.err.print(line);
+        else
+            Files.write(Paths.get(statsFile), line.getBytes(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    //Read length bytes at position into this thread's buffer. Positional reads are safe from several threads.
+    private byte[] readBlock(FileChannel channel, long position, int length) {
+        byte[] buffer = HuffmanCodec.buffer(blockBuffer, length);
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
         try {
-            BufferedInputStream reader = new BufferedInputStream(new FileInputStream(file));
-            int s = reader.read();
-            while (s != -1) {
-                if (frequency.containsKey(s))
-                    frequency.put(s, frequency.get(s) + 1); //If already contains, add one to freq
-                else {
-                    frequency.put(s, 1); //Add key(0-255 decimal representation) to hashmap if not seen, freq =1
-                }
-                s = reader.read();
+            while (target.hasRemaining()) {
+                if (channel.read(target, position + target.position()) < 0)
+                    throw new EOFException("File ended at " + (position + target.position()));
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
         }
+        return buffer;
     }
 
-    private void writeToFrequency(String freqFileName) {
-        try {
-            FileWriter writer = new FileWriter(freqFileName);
-            for (Integer key : frequency.keySet()) { //Integer.toBinaryString() drops leading zeros
-                writer.write(String.format("%8s", Integer.toBinaryString(key)).replace(' ', '0')+":" +frequency.get(key)+ "\n");
-                //Converting 0-255 binary representation to binary, leading zero was dropped, we add them back
+    //Byte counts, each of threads workers counting every threads-th block into its own Histogram
+    private long[] scanFrequency(MappedFile input, ForkJoinPool pool) {
+        long size = input.size();
+        List<ForkJoinTask<long[]>> workers = new ArrayList<>();
+        for (int worker = 0; worker < threads; worker++) {
+            long first = (long) worker * blockSize;
+            workers.add(pool.submit(() -> {
+                Histogram histogram = new Histogram();
+                for (long start = first; start < size; start += (long) threads * blockSize) {
+                    int length = (int) Math.min(blockSize, size - start);
+                    histogram.add(input.block(start, length), 0, length);
+                }
+                return histogram.counts();
+            }));
+        }
+        long[] frequency = new long[CanonicalCode.SYMBOLS];
+        for (ForkJoinTask<long[]> worker : workers)
+            add(frequency, worker.join());
+        return frequency;
+    }
+
+    /*
+    Counts chunks at evenly spaced positions, about sample of the input, with
+    positional reads so the rest of the file is never read for counting. Every count is
+    one more than seen, so a byte value the sample missed still gets a code. With order 1
+    the counts are of pairs, see scanContexts, and ContextCode gives every cluster every
+    symbol instead. Returns null if the sample would be the whole input.
+     */
+    private long[] sampleFrequency(FileChannel channel, long size, ForkJoinPool pool) {
+        long bytes = (long) Math.ceil(size * sample);
+        int chunk = (int) Math.max(MIN_SAMPLE_CHUNK, Math.min(SAMPLE_CHUNK, bytes / SAMPLE_CHUNKS));
+        long chunks = (bytes + chunk - 1) / chunk;
+        if (chunks * chunk >= size)
+            return null;
+        long stride = size / chunks;
+        int length = order == 1 ? ContextCode.CONTEXTS * CanonicalCode.SYMBOLS : CanonicalCode.SYMBOLS;
+        List<ForkJoinTask<long[]>> workers = new ArrayList<>();
+        for (int worker = 0; worker < threads; worker++) {
+            int first = worker;
+            workers.add(pool.submit(() -> {
+                long[] counts = new long[length];
+                Histogram histogram = new Histogram();
+                for (long i = first; i < chunks; i += threads) {
+                    byte[] buffer = readBlock(channel, i * stride, chunk);
+                    if (order == 1)
+                        ContextCode.count(ByteBuffer.wrap(buffer, 0, chunk), counts);
+                    else
+                        histogram.add(buffer, 0, chunk);
+                }
+                return order == 1 ? counts : histogram.counts();
+            }));
+        }
+        long[] counts = new long[length];
+        for (ForkJoinTask<long[]> worker : workers)
+            add(counts, worker.join());
+        if (order == 0) {
+            for (int s = 0; s < counts.length; s++)
+                counts[s]++;
+        }
+        return counts;
+    }
+
+    //Pair counts for ContextCode, each of threads workers counting every threads-th block into its own table
+    private long[] scanContexts(MappedFile input, ForkJoinPool pool) {
+        long size = input.size();
+        List<ForkJoinTask<long[]>> workers = new ArrayList<>();
+        for (int worker = 0; worker < threads; worker++) {
+            long first = (long) worker * blockSize;
+            workers.add(pool.submit(() -> {
+                long[] counts = new long[ContextCode.CONTEXTS * CanonicalCode.SYMBOLS];
+                for (long start = first; start < size; start += (long) threads * blockSize)
+                    ContextCode.count(input.block(start, (int) Math.min(blockSize, size - start)), counts);
+                return counts;
+            }));
+        }
+        long[] counts = new long[ContextCode.CONTEXTS * CanonicalCode.SYMBOLS];
+        for (ForkJoinTask<long[]> worker : workers)
+            add(counts, worker.join());
+        return counts;
+    }
+
+    //Adds every count of part to the count with the same key in counts
+    private static void add(long[] counts, long[] part) {
+        for (int key = 0; key < counts.length; key++)
+            counts[key] += part[key];
+    }
+
+    //Codes the blocks of one file, see fileCode
+    private interface BlockCoder {
+        //True if coding block is estimated to beat storing it, see HuffmanCodec.worthCoding
+        boolean worthCoding(ByteBuffer block);
+
+        //Encodes block as one frame at output's position, see HuffmanCodec.encodeFrame
+        long encodeFrame(ByteBuffer block, ByteBuffer output);
+    }
+
+    //The code of a file as both engines write it, see fileCode
+    private static class FileCode {
+        final byte[] header; //see Container
+        final long[] frequency; //of single bytes, for the entropy in the stats
+        final BlockCoder coder;
+
+        FileCode(byte[] header, long[] frequency, BlockCoder coder) {
+            this.header = header;
+            this.frequency = frequency;
+            this.coder = coder;
+        }
+    }
+
+    /*
+    Builds the code of a file of size bytes from its counts, of bytes or with order 1 of
+    pairs, see scanContexts. Sampled counts are those of sampleFrequency.
+     */
+    private FileCode fileCode(long[] counts, long size, boolean sampled) {
+        if (order == 1) {
+            ContextCode code = ContextCode.build(counts, codec(), sampled);
+            long[] frequency = new long[CanonicalCode.SYMBOLS]; //entropy in the stats stays that of single bytes
+            for (int key = 0; key < counts.length; key++)
+                frequency[key & 0xFF] += counts[key];
+            return new FileCode(Container.header(size, code), frequency, new BlockCoder() {
+                @Override
+                public boolean worthCoding(ByteBuffer block) {
+                    return HuffmanCodec.worthCoding(block, code);
+                }
+
+                @Override
+                public long encodeFrame(ByteBuffer block, ByteBuffer output) {
+                    return HuffmanCodec.encodeFrame(block, code, output);
+                }
+            });
+        }
+        CanonicalCode code = codec().code(counts);
+        return new FileCode(Container.header(size, code, streams == 1 ? 0 : Container.FLAG_STREAMS), counts, new BlockCoder() {
+            @Override
+            public boolean worthCoding(ByteBuffer block) {
+                return HuffmanCodec.worthCoding(block, code);
             }
-            writer.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+
+            @Override
+            public long encodeFrame(ByteBuffer block, ByteBuffer output) {
+                return HuffmanCodec.encodeFrame(block, code, output, streams);
+            }
+        });
+    }
+
+    //Most bytes a frame of length input bytes can take, at most blockSize, see setBlockSize
+    private int maxFrameLength(int length) {
+        return (int) HuffmanCodec.maxFrameLength(length, maxCodeLength);
+    }
+
+    private static class EncodedBlock {
+        final ByteBuffer frame; //the whole frame before its position, see Container, or only its header if copied
+        final long bits; //number of payload bits in the frame
+        final int length; //number of input bytes
+        final boolean copied; //stored frame whose payload is copied from the input file when written
+        final int checksum; //of a copied frame
+
+        EncodedBlock(ByteBuffer frame, long bits, int length) {
+            this(frame, bits, length, false, 0);
         }
 
+        EncodedBlock(ByteBuffer frame, long bits, int length, boolean copied, int checksum) {
+            this.frame = frame;
+            this.bits = bits;
+            this.length = length;
+            this.copied = copied;
+            this.checksum = checksum;
+        }
     }
 
+    //A stored frame, its payload left in the input file until written, see encodeBlocks
+    private static EncodedBlock storeBlock(ByteBuffer block) {
+        int length = block.remaining();
+        long bits = Container.STORED | 8L * length;
+        ByteBuffer header = ByteBuffer.allocate(Container.FRAME_HEADER_BYTES).putInt(length).putLong(bits);
+        return new EncodedBlock(header, bits, length, true, Container.checksum(header.array(), header.position(), block));
+    }
 
-    private void parseFrequencyFile(String frequencyFile) {
-        try {
-            BufferedReader reader = new BufferedReader(new FileReader(frequencyFile));
-            String line = reader.readLine();
-            while (line != null) {
-                String[] arr = line.split(":");
-                int decimal = Integer.parseInt(arr[0], 2); //convert binary to unicode decimal.
-                frequency.put(decimal, Integer.parseInt(arr[1]));
-                line = reader.readLine();
+    private EncodedBlock encodeBlock(ByteBuffer block, BlockCoder coder) {
+        if (!coder.worthCoding(block))
+            return storeBlock(block);
+        int length = block.remaining();
+        ByteBuffer frame = ByteBuffer.allocate(maxFrameLength(length));
+        long bits = coder.encodeFrame(block, frame);
+        return new EncodedBlock(frame, bits, length);
+    }
+
+    /*
+    Blocks are encoded concurrently and appended to encodeStream in input order as
+    frames, the first at offset. At most two blocks per thread are in flight
+    to bound memory. The payload of a stored block goes from inputChannel to
+    outputChannel, which encodeStream writes to, without passing through the JVM.
+    Returns the index of the written blocks.
+     */
+    private BlockIndex encodeBlocks(MappedFile input, Function<ByteBuffer, EncodedBlock> encoder, ForkJoinPool pool,
+                                    BinaryOut encodeStream, long offset, FileChannel inputChannel,
+                                    FileChannel outputChannel) throws IOException {
+        BlockIndex index = new BlockIndex();
+        long size = input.size();
+        Deque<ForkJoinTask<EncodedBlock>> pending = new ArrayDeque<>();
+        long start = 0; //input position of the next block to submit
+        long written = 0; //and of the next to write
+        while (start < size || !pending.isEmpty()) {
+            while (start < size && pending.size() < 2 * threads) {
+                ByteBuffer block = input.block(start, (int) Math.min(blockSize, size - start));
+                pending.add(pool.submit(() -> encoder.apply(block)));
+                start += block.limit();
             }
-        } catch (IOException e) {
+            EncodedBlock block = pending.remove().join();
+            encodeStream.writeBits(block.frame.array(), 8L * block.frame.position());
+            if (block.copied) {
+                encodeStream.flush();
+                long position = written;
+                for (long done = 0; done < block.length; )
+                    done += inputChannel.transferTo(position + done, block.length - done, outputChannel);
+                encodeStream.write(block.checksum);
+            }
+            index.add(offset, block.bits, block.length);
+            offset += Container.frameLength(block.bits);
+            written += block.length;
+        }
+        return index;
+    }
+
+
+    public void encode(String inputFile, String outputFile, String freqFile) {
+        //freqFile is no longer written, the code lengths are stored at the start of outputFile
+        try {
+            encodeFile(inputFile, outputFile);
+            System.out.println("File Encoded as " + outputFile);
+        } catch (IOException | RuntimeException e) {
             e.printStackTrace();
         }
+    }
 
+    //Encodes inputFile into outputFile, see encodeTo. If encoding fails, outputFile is deleted, see decodeFile.
+    void encodeFile(String inputFile, String outputFile) throws IOException {
+        encodeFile(inputFile, outputFile, true);
     }
 
+    //As above, writing the stats line only if write, see report
+    private void encodeFile(String inputFile, String outputFile, boolean write) throws IOException {
+        try {
+            encodeTo(inputFile, outputFile, write);
+        } catch (IOException | RuntimeException e) {
+            if (Files.isRegularFile(Paths.get(outputFile)))
+                Files.delete(Paths.get(outputFile));
+            throw e;
+        }
+    }
+
+    /*
+    The input is memory mapped, so both the frequency scan and the encoding read it straight
+    from the page cache.
+     */
+    private void encodeTo(String inputFile, String outputFile, boolean write) throws IOException {
+        HuffmanStats stats = new HuffmanStats("encode", inputFile);
+        if (isStream(inputFile)) { //a pipe or device can only be read once
+            try (InputStream reader = new FileInputStream(inputFile);
+                 OutputStream writer = new FileOutputStream(outputFile)) {
+                codeStream(reader, writer, stats);
+            }
+            report(stats, write);
+            return;
+        }
+
+        if (dictionary != null) { //small inputs, the whole file is one message
+            byte[] input = Files.readAllBytes(Paths.get(inputFile));
+            byte[] message = new HuffmanCodec().encode(input, dictionary);
+            stats.phase(HuffmanStats.Phase.ENCODE);
+            Files.write(Paths.get(outputFile), message);
+            stats.phase(HuffmanStats.Phase.FLUSH);
+            stats.bytes(input.length, message.length);
+            report(stats, write);
+            return;
+        }
+        if (pipelineDepth > 0) {
+            encodePipelined(inputFile, outputFile, stats);
+            report(stats, write);
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFile));
+             FileChannel output = FileChannel.open(Paths.get(outputFile),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BinaryOut encodeStream = new BinaryOut(Channels.newOutputStream(output));
+            MappedFile input = new MappedFile(channel, blockSize);
+            long[] sampled = sample < 1 ? sampleFrequency(channel, input.size(), pool) : null;
+            long[] counts = sampled != null ? sampled : order == 1 ? scanContexts(input, pool) : scanFrequency(input, pool);
+            stats.phase(HuffmanStats.Phase.HISTOGRAM);
+            FileCode code = fileCode(counts, input.size(), sampled != null);
+            stats.phase(HuffmanStats.Phase.BUILD);
+            for (byte b : code.header)
+                encodeStream.write(b);
 
-    private void enQueue() {
-        for (Integer key : frequency.keySet()) {
-            queue.offer(new HuffmanNode(key, frequency.get(key)));
+            BlockIndex index = encodeBlocks(input, block -> encodeBlock(block, code.coder), pool, encodeStream,
+                    code.header.length, channel, output);
+            stats.phase(HuffmanStats.Phase.ENCODE);
+            index.write(encodeStream); //at the end, decode reads it first
+            encodeStream.close();
+            stats.phase(HuffmanStats.Phase.FLUSH);
+
+            stats.frequency(code.frequency);
+            stats.payload(input.size(), payloadBits(index));
+            stats.stored(storedBytes(index));
+            stats.bytes(input.size(), Files.size(Paths.get(outputFile)));
+        } finally {
+            pool.shutdown();
         }
+        report(stats, write);
     }
 
+    /*
+    Encodes through a Pipeline instead of mapping the input: blocks are read with
+    positional reads into reused buffers, coded on threads workers and written in order
+    through the output channel, so reading, coding and writing overlap. The input is
+    counted through a pipeline too, unless the code is built from a sample.
+     */
+    private void encodePipelined(String inputFile, String outputFile, HuffmanStats stats) throws IOException {
+        try (FileChannel input = FileChannel.open(Paths.get(inputFile));
+             FileChannel output = FileChannel.open(Paths.get(outputFile),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = input.size();
+            Pipeline.Reader reader = slot -> {
+                long position = slot.block * blockSize;
+                if (position >= size)
+                    return false;
+                Pipeline.readFully(input, position, slot.input, (int) Math.min(blockSize, size - position));
+                return true;
+            };
+
+            long[] sampled = null;
+            if (sample < 1) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    sampled = sampleFrequency(input, size, pool);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            long[] counts = sampled != null ? sampled : countPipelined(reader, stats);
+            stats.phase(HuffmanStats.Phase.HISTOGRAM);
+            FileCode code = fileCode(counts, size, sampled != null);
+            stats.phase(HuffmanStats.Phase.BUILD);
+            Pipeline.writeFully(output, ByteBuffer.wrap(code.header));
 
-    private class HuffmanNode implements Comparable<HuffmanNode> {
-        int c; //unicode representation of the character
-        int freq;
-        HuffmanNode left;
-        HuffmanNode right;
+            BlockIndex index = new BlockIndex();
+            long[] offset = {code.header.length}; //of the next frame
+            Pipeline.Stage coder = slot -> slot.bits = code.coder.worthCoding(slot.input)
+                    ? code.coder.encodeFrame(slot.input, slot.output)
+                    : HuffmanCodec.storeFrame(slot.input, slot.output);
+            Pipeline pipeline = new Pipeline(pipelineDepth, threads, blockSize, maxFrameLength(blockSize));
+            pipeline.run(reader, coder, slot -> {
+                index.add(offset[0], slot.bits, slot.input.remaining());
+                offset[0] += Container.frameLength(slot.bits);
+                slot.output.flip();
+                Pipeline.writeFully(output, slot.output);
+            });
+            stats.phase(HuffmanStats.Phase.ENCODE);
+            stats.pipeline(pipeline);
+            BinaryOut out = new BinaryOut(Channels.newOutputStream(output));
+            index.write(out);
+            out.close();
+            stats.phase(HuffmanStats.Phase.FLUSH);
 
-        HuffmanNode(Integer c, int freq) {
-            this.c = c;
-            this.freq = freq;
+            stats.frequency(code.frequency);
+            stats.payload(size, payloadBits(index));
+            stats.stored(storedBytes(index));
+            stats.bytes(size, Files.size(Paths.get(outputFile)));
         }
+    }
 
-        @Override
-        public int compareTo(HuffmanNode o) {
-            return freq - o.freq;
+    //Counts of the blocks of reader, of bytes or with order 1 of pairs, each coding thread counting into its own table
+    private long[] countPipelined(Pipeline.Reader reader, HuffmanStats stats) throws IOException {
+        int length = order == 1 ? ContextCode.CONTEXTS * CanonicalCode.SYMBOLS : CanonicalCode.SYMBOLS;
+        List<long[]> tables = new ArrayList<>();
+        ThreadLocal<long[]> table = ThreadLocal.withInitial(() -> {
+            long[] counts = new long[length];
+            synchronized (tables) {
+                tables.add(counts);
+            }
+            return counts;
+        });
+        Pipeline pipeline = new Pipeline(pipelineDepth, threads, blockSize, 0);
+        pipeline.run(reader, slot -> {
+            long[] counts = table.get();
+            if (order == 1)
+                ContextCode.count(slot.input, counts);
+            else
+                add(counts, HuffmanCodec.count(slot.input));
+        }, slot -> { });
+        stats.pipeline(pipeline);
+        long[] counts = new long[length];
+        synchronized (tables) {
+            for (long[] part : tables)
+                add(counts, part);
         }
+        return counts;
     }
 
+    private static long payloadBits(BlockIndex index) {
+        long bits = 0;
+        for (int i = 0; i < index.count(); i++)
+            bits += Container.bitCount(index.bits(i));
+        return bits;
+    }
 
-    private HuffmanNode huffmanTree() {
-        HuffmanNode root = null;
-        while (queue.size() != 1) {
-            HuffmanNode minNode = queue.poll();
-            HuffmanNode secondMinNode = queue.poll();
-            //Dummy node only hold total frequency from the two child nodes
-            HuffmanNode totalFrequency = new HuffmanNode(-1, minNode.freq + secondMinNode.freq);
-            totalFrequency.left = minNode;
-            totalFrequency.right = secondMinNode;
-            root = totalFrequency;
-            queue.offer(root); //Put root node back for next iteration comparsion
+    private static long storedBytes(BlockIndex index) {
+        long bytes = 0;
+        for (int i = 0; i < index.count(); i++) {
+            if (Container.isStored(index.bits(i)))
+                bytes += index.size(i);
         }
-        return root;
+        return bytes;
     }
 
-    private void huffmanCodeToMap(HuffmanNode node, String s) {
-        if (node == null)
-            return;
+    //Decode the frame at offset into outputOffset of output, checking it first
+    private void decodeBlock(FileChannel input, FileChannel output, HuffmanDecoder decoder, int streams,
+                             long outputOffset, long offset, long bits, int size) {
+        int length = Container.frameLength(bits);
+        ByteBuffer frame = ByteBuffer.wrap(readBlock(input, offset, length), 0, length);
+        ByteBuffer decoded = ByteBuffer.wrap(HuffmanCodec.buffer(decodeBuffer, size), 0, size);
+        try {
+            if (frame.getInt(0) != size || frame.getLong(4) != bits)
+                throw new IOException("Frame at offset " + offset + " does not match the index");
+            HuffmanCodec.decodeFrame(frame, decoder, decoded, streams, offset);
+            decoded.flip();
+            while (decoded.hasRemaining())
+                output.write(decoded, outputOffset + decoded.position());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        if (node.left == null && node.right == null)
-            huffCodeMap.put(node.c, s); //If reached leaf node, we made a huffman code, add it to hashmap
+    public void decode(String inputFile, String outputFile, String freqFile) {
+        //freqFile is not needed, the code is rebuilt from the lengths at the start of inputFile
+        try {
+            decodeFile(inputFile, outputFile);
+            System.out.println("File Decoded ");
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
 
-        huffmanCodeToMap(node.left, s + "0");
-        huffmanCodeToMap(node.right, s + "1");
+    /*
+    Decodes inputFile into outputFile, see decodeTo. If decoding fails, outputFile is
+    deleted, since a partly decoded or zero-filled file must not pass for the original.
+    An output that is not a regular file, such as /dev/stdout, is left alone.
+     */
+    void decodeFile(String inputFile, String outputFile) throws IOException {
+        decodeFile(inputFile, outputFile, true);
     }
 
+    //As above, writing the stats line only if write, see report
+    private void decodeFile(String inputFile, String outputFile, boolean write) throws IOException {
+        try {
+            decodeTo(inputFile, outputFile, write);
+        } catch (IOException | RuntimeException e) {
+            if (Files.isRegularFile(Paths.get(outputFile)))
+                Files.delete(Paths.get(outputFile));
+            throw e;
+        }
+    }
 
-    public void encode(String inputFile, String outputFile, String freqFile) {
-        BinaryOut encodeStream = new BinaryOut(outputFile);
-        scanFrequency(inputFile);
-        enQueue(); //enqueue element of frequency hashmap to pqueue
-        writeToFrequency(freqFile);
-        HuffmanNode root = huffmanTree(); //build huffmantree with queue. Return root.
-        huffmanCodeToMap(root, "");
+    /*
+    The block index gives every block's position in both files, so blocks are decoded
+    concurrently and written straight to their place in outputFile.
+     */
+    private void decodeTo(String inputFile, String outputFile, boolean write) throws IOException {
+        HuffmanStats stats = new HuffmanStats("decode", inputFile);
+        if (isStream(inputFile)) {
+            try (InputStream reader = new FileInputStream(inputFile);
+                 OutputStream writer = new FileOutputStream(outputFile)) {
+                codeStream(reader, writer, stats);
+            }
+            report(stats, write);
+            return;
+        }
 
-        try {
-            BufferedInputStream reader = new BufferedInputStream(new FileInputStream(inputFile));
-            int s = reader.read();
-            while (s != -1) {
-                String [] arr = huffCodeMap.get(s).split("");
-                for(String i:arr){
-                    encodeStream.write(i.equals("1"));
-                    totalOutputBits ++;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (FileChannel input = FileChannel.open(Paths.get(inputFile))) {
+            if (isAdaptive(input)) {
+                try (OutputStream writer = new FileOutputStream(outputFile)) {
+                    decodeStream(Channels.newInputStream(input.position(0)), writer);
+                }
+                stats.phase(HuffmanStats.Phase.DECODE);
+            }
+            else if (isMessage(input)) { //its dictionary must have been loaded with -dict
+                byte[] decoded = new HuffmanCodec().decode(Files.readAllBytes(Paths.get(inputFile)));
+                stats.phase(HuffmanStats.Phase.DECODE);
+                Files.write(Paths.get(outputFile), decoded);
+                stats.phase(HuffmanStats.Phase.FLUSH);
+            }
+            else {
+                Container container = Container.readHeader(input);
+                HuffmanDecoder decoder = container.decoder();
+                BlockIndex index = BlockIndex.read(input);
+                stats.phase(HuffmanStats.Phase.BUILD);
+                long total = 0;
+                for (int i = 0; i < index.count(); i++)
+                    total += index.size(i);
+                if (total != container.originalSize())
+                    throw new IOException("Blocks decode to " + total + " bytes, header says " + container.originalSize());
+
+                if (pipelineDepth > 0)
+                    decodePipelined(input, outputFile, container, decoder, index, stats);
+                else {
+                    try (RandomAccessFile file = new RandomAccessFile(outputFile, "rw")) {
+                        file.setLength(total); //blocks may finish in any order
+                        FileChannel output = file.getChannel();
+                        List<ForkJoinTask<?>> blocks = new ArrayList<>();
+                        long outputOffset = 0;
+                        for (int i = 0; i < index.count(); i++) {
+                            long position = outputOffset;
+                            int block = i;
+                            blocks.add(pool.submit(() -> decodeBlock(input, output, decoder, container.streams(),
+                                    position, index.offset(block), index.bits(block), index.size(block))));
+                            outputOffset += index.size(i);
+                        }
+                        for (ForkJoinTask<?> block : blocks)
+                            block.join();
+                        stats.phase(HuffmanStats.Phase.DECODE);
+                    }
                 }
-                s = reader.read();
+                stats.phase(HuffmanStats.Phase.FLUSH);
+                stats.payload(total, payloadBits(index));
+                stats.stored(storedBytes(index));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        stats.bytes(Files.size(Paths.get(inputFile)), Files.size(Paths.get(outputFile)));
+        report(stats, write);
+    }
+
+    /*
+    Decodes through a Pipeline: frames are read into reused buffers, decoded on threads
+    workers and written in order, so the output is written sequentially while the next
+    frames are read and decoded.
+     */
+    private void decodePipelined(FileChannel input, String outputFile, Container container, HuffmanDecoder decoder,
+                                 BlockIndex index, HuffmanStats stats) throws IOException {
+        int frameSize = 0;
+        int blockSize = 0;
+        for (int i = 0; i < index.count(); i++) {
+            frameSize = Math.max(frameSize, Container.frameLength(index.bits(i)));
+            blockSize = Math.max(blockSize, index.size(i));
+        }
+        Pipeline pipeline = new Pipeline(pipelineDepth, threads, frameSize, blockSize);
+        try (FileChannel output = FileChannel.open(Paths.get(outputFile),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            pipeline.run(slot -> {
+                if (slot.block == index.count())
+                    return false;
+                int block = (int) slot.block;
+                Pipeline.readFully(input, index.offset(block), slot.input, Container.frameLength(index.bits(block)));
+                return true;
+            }, slot -> {
+                int block = (int) slot.block;
+                if (slot.input.getInt(0) != index.size(block) || slot.input.getLong(4) != index.bits(block))
+                    throw new IOException("Frame at offset " + index.offset(block) + " does not match the index");
+                HuffmanCodec.decodeFrame(slot.input, decoder, slot.output, container.streams(), index.offset(block));
+            }, slot -> {
+                slot.output.flip();
+                Pipeline.writeFully(output, slot.output);
+            });
+            stats.phase(HuffmanStats.Phase.DECODE);
+        }
+        stats.pipeline(pipeline);
+    }
+
+    /*
+    Every regular file under samples, or samples itself if it is a file, is one sample.
+    Samples should look like the messages the dictionary is for, e.g. one JSON message each.
+     */
+    void train(String samples, String outputFile, int id) {
+        try {
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(Paths.get(samples))) {
+                files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+            }
+            List<byte[]> inputs = new ArrayList<>();
+            long bytes = 0;
+            for (Path file : files) {
+                byte[] sample = Files.readAllBytes(file);
+                inputs.add(sample);
+                bytes += sample.length;
             }
+            HuffmanDictionary.train(id, inputs).save(Paths.get(outputFile));
+            System.out.println("Dictionary " + id + " trained on " + inputs.size() + " samples, " + bytes + " bytes, saved as " + outputFile);
         } catch (IOException e) {
             e.printStackTrace();
         }
-        encodeStream.flush();
-        queue.clear();
-        System.out.println("File Encoded as " + outputFile);
     }
 
+    /*
+    Batch mode codes many files in this JVM instead of starting one per file. Files are
+    coded concurrently on threads workers; a file up to IN_MEMORY_LIMIT is read, coded and
+    written by one worker. Larger files are coded after the others, one at a time, each
+    split into blocks on threads workers of its own like a single file. Outputs go next to
+    their inputs, or under outputDir with the same path relative to base. Returns the
+    number of files that failed, each of which is reported; statistics are not written
+    per file, only the summary line.
+     */
+    int batch(boolean encode, List<Path> files, Path base, Path outputDir) {
+        HuffmanCodec codec = codec();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        List<Path> order = new ArrayList<>(files.size()); //files in the order their results are taken
+        List<Supplier<long[]>> results = new ArrayList<>(files.size());
+        List<Path> large = new ArrayList<>();
+        for (Path file : files) {
+            if (isLarge(file))
+                large.add(file);
+            else {
+                ForkJoinTask<long[]> task = pool.submit(() -> batchFile(encode, codec, file, batchOutput(encode, file, base, outputDir)));
+                order.add(file);
+                results.add(task::join);
+            }
+        }
+        for (Path file : large) { //coded on this thread once the small files are done
+            order.add(file);
+            results.add(() -> batchFile(encode, codec, file, batchOutput(encode, file, base, outputDir)));
+        }
+        long inputBytes = 0;
+        long outputBytes = 0;
+        int failed = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                long[] sizes = results.get(i).get();
+                inputBytes += sizes[0];
+                outputBytes += sizes[1];
+            } catch (UncheckedIOException | IllegalArgumentException e) {
+                Throwable cause = e instanceof UncheckedIOException ? e.getCause() : e;
+                System.out.println(order.get(i) + ": " + cause);
+                failed++;
+            }
+        }
+        pool.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s %d files, %d failed: %d -> %d bytes (%.1f%%) in %.2f s, %.1f MB/s, %.0f files/s%n",
+                encode ? "Compressed" : "Decompressed", files.size() - failed, failed, inputBytes, outputBytes,
+                inputBytes == 0 ? 100.0 : 100.0 * outputBytes / inputBytes, seconds, inputBytes / 1e6 / seconds,
+                files.size() / seconds);
+        return failed;
+    }
 
-    public void decode(String inputFile, String outputFile, String freqFile) {
-        parseFrequencyFile(freqFile);
-        enQueue();
-        HuffmanNode root = huffmanTree();
-        BinaryIn stream = new BinaryIn(inputFile);
+    //Over IN_MEMORY_LIMIT, see batch. A file whose size cannot be read is not, batchFile reports it.
+    private static boolean isLarge(Path file) {
+        try {
+            return Files.size(file) > IN_MEMORY_LIMIT;
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
+    //Codes one file of a batch, returns its input and output sizes
+    private long[] batchFile(boolean encode, HuffmanCodec codec, Path file, Path output) {
         try {
-            BufferedOutputStream writer = new BufferedOutputStream(new FileOutputStream(outputFile));
-            HuffmanNode current = root;
-            while (!stream.isEmpty()) {
-                boolean b = stream.readBoolean();
-                if (!b) {
-                    current = current.left;
-                } else {
-                    current = current.right;
-                }
-                if (current.left == null && current.right == null) {
-                    writer.write(current.c);
-                    current = root;
+            if (output.getParent() != null)
+                Files.createDirectories(output.getParent());
+            long size = Files.size(file);
+            if (size > IN_MEMORY_LIMIT) {
+                if (encode)
+                    encodeFile(file.toString(), output.toString(), false);
+                else
+                    decodeFile(file.toString(), output.toString(), false);
+            }
+            else {
+                byte[] input = Files.readAllBytes(file);
+                if (encode)
+                    Files.write(output, dictionary != null ? codec.encode(input, dictionary) : codec.encode(input));
+                else if (input.length >= AdaptiveHuffman.MAGIC.length
+                        && Arrays.equals(Arrays.copyOf(input, AdaptiveHuffman.MAGIC.length), AdaptiveHuffman.MAGIC)) {
+                    try (OutputStream writer = Files.newOutputStream(output)) {
+                        decodeStream(new ByteArrayInputStream(input), writer);
+                    }
                 }
+                else
+                    Files.write(output, codec.decode(input));
+            }
+            return new long[]{size, Files.size(output)};
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //name.enc for name when encoding, name for name.enc when decoding
+    private static Path batchOutput(boolean encode, Path file, Path base, Path outputDir) {
+        String name = file.getFileName().toString();
+        if (encode)
+            name += ".enc";
+        else
+            name = name.endsWith(".enc") ? name.substring(0, name.length() - 4) : name + ".dec";
+        if (outputDir == null)
+            return file.resolveSibling(name);
+        Path relative = file.startsWith(base) ? base.relativize(file) : file.getFileName();
+        return outputDir.resolve(relative).resolveSibling(name);
+    }
+
+    //A directory, a glob such as "logs/*.log", or @list for a file with one name per line
+    static boolean isBatch(String source, String pwd) {
+        if (source.startsWith("@"))
+            return true;
+        Path path = Paths.get(resolve(pwd, source));
+        if (Files.exists(path)) //an existing name is taken as it is, so report[1].txt is a file and not a glob
+            return Files.isDirectory(path);
+        return source.matches(".*[*?\\[{].*");
+    }
+
+    //Directory or glob part of source that the outputs keep their paths relative to
+    static Path batchBase(String source, String pwd) {
+        if (source.startsWith("@"))
+            return Paths.get(pwd).toAbsolutePath().normalize();
+        Path path = Paths.get(resolve(pwd, source)).toAbsolutePath().normalize();
+        while (path.getParent() != null && path.toString().matches(".*[*?\\[{].*"))
+            path = path.getParent();
+        return path;
+    }
+
+    /*
+    The files named by source, see isBatch. A directory is walked recursively, skipping
+    files that are already compressed when encoding and taking only those when decoding.
+     */
+    static List<Path> batchFiles(boolean encode, String source, String pwd) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (source.startsWith("@")) {
+            for (String line : Files.readAllLines(Paths.get(resolve(pwd, source.substring(1))))) {
+                if (!line.isBlank())
+                    files.add(Paths.get(resolve(pwd, line.trim())).toAbsolutePath().normalize());
             }
-            writer.flush();
-            writer.close();
+            return files;
+        }
+        Path base = batchBase(source, pwd);
+        boolean directory = Files.isDirectory(Paths.get(resolve(pwd, source)));
+        PathMatcher glob = FileSystems.getDefault().getPathMatcher("glob:"
+                + Paths.get(resolve(pwd, source)).toAbsolutePath().normalize());
+        try (Stream<Path> walk = Files.walk(base)) {
+            walk.filter(Files::isRegularFile)
+                    .filter(file -> directory ? file.toString().endsWith(".enc") != encode : glob.matches(file))
+                    .forEach(files::add);
+        }
+        return files;
+    }
 
+    //Check the encoded file's checksums without decoding it
+    boolean verify(String inputFile) {
+        try {
+            FileChannel input = FileChannel.open(Paths.get(inputFile));
+            try {
+                if (isAdaptive(input))
+                    throw new IOException("Adaptive streams carry no checksums");
+                Container.verify(input);
+            } finally {
+                input.close();
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            System.out.println(inputFile + ": " + e.getMessage());
+            return false;
+        }
+        System.out.println(inputFile + ": OK");
+        return true;
+    }
+
+    //Single pass adaptive coding of in to out, for input that cannot be read twice
+    void encodeStream(InputStream in, OutputStream out) throws IOException {
+        new AdaptiveHuffman().encode(in, out);
+    }
+
+    void decodeStream(InputStream in, OutputStream out) throws IOException {
+        new AdaptiveHuffman().decode(in, out);
+    }
+
+    //encodeStream or decodeStream as stats says, counting the bytes read from in and written to out
+    private void codeStream(InputStream in, OutputStream out, HuffmanStats stats) throws IOException {
+        CountingInputStream input = new CountingInputStream(in);
+        CountingOutputStream output = new CountingOutputStream(out);
+        if (stats.operation().equals("encode")) {
+            encodeStream(input, output);
+            stats.phase(HuffmanStats.Phase.ENCODE);
+        }
+        else {
+            decodeStream(input, output);
+            stats.phase(HuffmanStats.Phase.DECODE);
+        }
+        stats.bytes(input.count, output.count);
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException { //not byte by byte as FilterOutputStream does
+            out.write(b, off, len);
+            count += len;
         }
+    }
+
+    //A pipe, device or other file that exists but cannot be read twice. A missing file is not one.
+    private static boolean isStream(String file) {
+        Path path = Paths.get(file);
+        return Files.exists(path) && !Files.isRegularFile(path);
+    }
+
+    private static boolean isAdaptive(FileChannel input) throws IOException {
+        if (input.size() < AdaptiveHuffman.MAGIC.length)
+            return false;
+        byte[] magic = Container.readFully(input, 0, AdaptiveHuffman.MAGIC.length).array();
+        return Arrays.equals(magic, AdaptiveHuffman.MAGIC);
+    }
+
+    private static boolean isMessage(FileChannel input) throws IOException {
+        return HuffmanDictionary.isMessage(Container.readFully(input, 0, (int) Math.min(input.size(), HuffmanDictionary.MESSAGE_MAGIC.length)));
+    }
+
+    //Parse a byte count with an optional K or M suffix, e.g. 4M
+    private static int parseSize(String size) {
+        String upper = size.toUpperCase();
+        if (upper.endsWith("K"))
+            return Integer.parseInt(upper.substring(0, upper.length() - 1)) << 10;
+        if (upper.endsWith("M"))
+            return Integer.parseInt(upper.substring(0, upper.length() - 1)) << 20;
+        return Integer.parseInt(upper);
+    }
 
-        queue.clear();
-        System.out.println("File Decoded ");
+    //Absolute names such as /dev/stdin are kept, others are relative to pwd
+    private static String resolve(String pwd, String name) {
+        return Paths.get(pwd).resolve(name).toString();
     }
 
     public static void main(String[] args) {
@@ -183,8 +998,106 @@ public class HuffmanMain implements Huffman {
         args[3] pwd current directory
         */
         HuffmanMain huffman = new HuffmanMain();
+
+        //Options may appear anywhere, the remaining arguments keep the layout above
+        List<String> positional = new ArrayList<>();
+        String dictionaryFile = null;
+        int id = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads"))
+                huffman.setThreads(Integer.parseInt(args[++i]));
+            else if (args[i].equals("-block"))
+                huffman.setBlockSize(parseSize(args[++i]));
+            else if (args[i].equals("-maxlen"))
+                huffman.setMaxCodeLength(Integer.parseInt(args[++i]));
+            else if (args[i].equals("-streams"))
+                huffman.setStreams(Integer.parseInt(args[++i]));
+            else if (args[i].equals("-sample"))
+                huffman.setSample(Double.parseDouble(args[++i]));
+            else if (args[i].equals("-pipeline"))
+                huffman.setPipelineDepth(Integer.parseInt(args[++i]));
+            else if (args[i].equals("-order"))
+                huffman.setOrder(Integer.parseInt(args[++i]));
+            else if (args[i].equals("-dict"))
+                dictionaryFile = args[++i];
+            else if (args[i].equals("-stats"))
+                huffman.setStatsFile(args[++i]);
+            else if (args[i].equals("-id"))
+                id = Integer.parseInt(args[++i]);
+            else
+                positional.add(args[i]);
+        }
+        args = positional.toArray(new String[0]);
+        if (huffman.order == 1 && huffman.streams != 1)
+            throw new IllegalArgumentException("-order 1 needs a single stream, drop -streams");
         String pwd = args[args.length-1]+"/";
 
+        if (args[0].equals("train")) {
+            String output = args.length == 4 ? args[2] : Paths.get(args[1]).getFileName() + ".dict";
+            huffman.train(resolve(pwd, args[1]), resolve(pwd, output), id);
+            return;
+        }
+        if (dictionaryFile != null) {
+            try {
+                huffman.setDictionary(HuffmanDictionary.load(Paths.get(resolve(pwd, dictionaryFile))));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+
+        if (args[0].equals("verify")) {
+            if (!huffman.verify(resolve(pwd, args[1])))
+                System.exit(1);
+            return;
+        }
+
+        //serve <port or socket path>, answering HuffmanClient requests until stopped
+        if (args[0].equals("serve")) {
+            HuffmanServer server = new HuffmanServer(huffman.codec(), huffman.dictionary);
+            try {
+                if (args[1].matches("\\d+"))
+                    server.serve(Integer.parseInt(args[1]));
+                else
+                    server.serve(Paths.get(resolve(pwd, args[1])));
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+
+        if (isBatch(args[1], pwd)) {
+            boolean encode = args[0].equals("encode");
+            try {
+                List<Path> files = batchFiles(encode, args[1], pwd);
+                Path outputDir = args.length == 4 ? Paths.get(resolve(pwd, args[2])) : null;
+                if (huffman.batch(encode, files, batchBase(args[1], pwd), outputDir) > 0)
+                    System.exit(1);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+
+        //"-" streams from standard input, to standard output unless an output name is given
+        if (args[1].equals("-")) {
+            try {
+                OutputStream out = System.out;
+                if (args.length == 4)
+                    out = new FileOutputStream(resolve(pwd, args[2]));
+                HuffmanStats stats = new HuffmanStats(args[0].equals("encode") ? "encode" : "decode", "-");
+                huffman.codeStream(System.in, out, stats);
+                out.close();
+                huffman.report(stats, true);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+
         /*
         Manipulating output file name
         If args.length is 2, only two parameters are provided, therefore no output file name
@@ -205,21 +1118,28 @@ public class HuffmanMain implements Huffman {
                     parsedFile = parsedFile.substring(0, parsedFile.lastIndexOf('.'));
                 }
             }
-            String frequencyFileName = "."+ parsedFile + "_freq.txt"; //Add frequency to the parsed file to keep track of names
             String encodeFileName = parsedFile + ".enc"; //Add enc to all files
-            System.out.println(pwd+args[1]);
-            huffman.encode(pwd+args[1], pwd+encodeFileName, pwd+frequencyFileName);
+            System.out.println(resolve(pwd, args[1]));
+            try {
+                huffman.encodeFile(resolve(pwd, args[1]), resolve(pwd, encodeFileName));
+            } catch (IOException | RuntimeException e) { //the script keeps the input only if this exits non-zero
+                e.printStackTrace();
+                System.exit(1);
+            }
+            System.out.println("File Encoded as " + resolve(pwd, encodeFileName));
         }
 
         else{ //decode
-            parsedFile = args[1].substring(0, args[1].lastIndexOf('.'));
-            String frequencyFileName = "."+parsedFile + "_freq.txt";
-            if(args.length ==4){
-                huffman.decode(pwd+args[1], pwd+args[2],pwd+frequencyFileName);
-            }
-            else{
-                huffman.decode(pwd+args[1],pwd+parsedFile,pwd+frequencyFileName);
+            if (args[1].contains("."))
+                parsedFile = args[1].substring(0, args[1].lastIndexOf('.'));
+            String output = args.length == 4 ? args[2] : parsedFile;
+            try {
+                huffman.decodeFile(resolve(pwd, args[1]), resolve(pwd, output));
+            } catch (IOException | RuntimeException e) { //the output is already deleted, see decodeFile
+                e.printStackTrace();
+                System.exit(1);
             }
+            System.out.println("File Decoded ");
         }
 
     }
@@ -0,0 +1,131 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses data written to it, like GZIPOutputStream. Data is collected into blocks,
+ * and every block is written with a code built for it alone, so memory use is bounded by
+ * the block size however long the stream is. Read it back with HuffmanInputStream.
+ *
+ * <pre>
+ * stream   magic "HUFS" (4), version (1), blocks, end marker
+ * block    type 1 (1), code lengths (see CanonicalCode), CRC32C of type and lengths (4),
+ *          frame (see Container)
+ *          or type 2 (1), stored frame, for a block that coding would not shrink enough
+ * end      type 0 (1)
+ * </pre>
+ */
+public class HuffmanOutputStream extends FilterOutputStream {
+    static final byte[] MAGIC = {'H', 'U', 'F', 'S'};
+    static final int VERSION = 1;
+    static final int END = 0;
+    static final int HUFFMAN = 1;
+    static final int STORED = 2;
+
+    private final HuffmanCodec codec;
+    private final byte[] block; //input collected for the next block
+    private int count;
+    private final ByteBuffer frame; //the encoded block
+    private boolean finished;
+
+    public HuffmanOutputStream(OutputStream out) throws IOException {
+        this(out, HuffmanCodec.DEFAULT_BLOCK_SIZE);
+    }
+
+    public HuffmanOutputStream(OutputStream out, int blockSize) throws IOException {
+        super(out);
+        codec = new HuffmanCodec(blockSize, HuffmanCodec.DEFAULT_MAX_CODE_LENGTH, 1);
+        block = new byte[blockSize];
+        frame = ByteBuffer.allocate((int) HuffmanCodec.maxFrameLength(blockSize, HuffmanCodec.DEFAULT_MAX_CODE_LENGTH)); //checked by codec
+        out.write(MAGIC);
+        out.write(VERSION);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (finished)
+            throw new IOException("Stream already finished");
+        if (count == block.length)
+            writeBlock();
+        block[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished)
+            throw new IOException("Stream already finished");
+        while (len > 0) {
+            if (count == block.length)
+                writeBlock();
+            int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (finished)
+            throw new IOException("Stream already finished");
+        if (count == 0)
+            return;
+        ByteBuffer data = ByteBuffer.wrap(block, 0, count);
+        long[] frequency = HuffmanCodec.count(data);
+        CanonicalCode code = codec.code(frequency);
+        byte[] lengths = code.header();
+        long bits = 8L * (lengths.length + Container.CHECKSUM_BYTES); //exact, the block is counted anyway
+        for (int s = 0; s < CanonicalCode.SYMBOLS; s++)
+            bits += frequency[s] * code.lengths()[s];
+        frame.clear();
+        if (!HuffmanCodec.worthCoding(bits, count)) { //every block has a code of its own, so it counts too
+            out.write(STORED);
+            HuffmanCodec.storeFrame(data, frame);
+            out.write(frame.array(), 0, frame.position());
+            count = 0;
+            return;
+        }
+        ByteBuffer table = ByteBuffer.allocate(1 + lengths.length + Container.CHECKSUM_BYTES);
+        table.put((byte) HUFFMAN).put(lengths);
+        table.putInt(Container.checksum(table.array(), 0, table.position()));
+        out.write(table.array());
+
+        HuffmanCodec.encodeFrame(data, code, frame, 1);
+        out.write(frame.array(), 0, frame.position());
+        count = 0;
+    }
+
+    /**
+     * Writes the data collected so far as a block and flushes the underlying stream,
+     * so a reader can decode everything written up to here. Frequent flushes make
+     * small blocks, which compress worse. After finish only the underlying stream is
+     * flushed, like GZIPOutputStream.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (!finished)
+            writeBlock();
+        out.flush();
+    }
+
+    /**
+     * Writes the remaining data and the end marker without closing the underlying stream.
+     */
+    public void finish() throws IOException {
+        if (finished)
+            return;
+        writeBlock();
+        out.write(END);
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Long running compression service on a loopback TCP port or a Unix domain socket, so
+ * short lived clients (see HuffmanClient) get a warm, JIT compiled codec instead of
+ * starting a JVM of their own. Every connection is served on its own thread, a virtual
+ * thread where the JDK has them.
+ *
+ * <pre>
+ * request   operation (1, COMPRESS or DECOMPRESS), length (4), data
+ * response  status (1, OK or ERROR), length (4), result or a UTF-8 error message
+ * </pre>
+ * A connection carries any number of requests, answered in order, until the client
+ * closes it. Data of a request and its result are limited to MAX_LENGTH bytes.
+ *
+ * Every request reserves its data and the largest result it can have out of MAX_IN_FLIGHT
+ * bytes before its data is read, and waits while the reservations of other connections
+ * leave too little, so the number of clients does not decide how much memory is used.
+ */
+class HuffmanServer {
+    static final int COMPRESS = 'C';
+    static final int DECOMPRESS = 'D';
+    static final int OK = 0;
+    static final int ERROR = 1;
+    static final int MAX_LENGTH = 1 << 28;
+    static final int DEFAULT_PORT = 7878;
+    static final int MAX_IN_FLIGHT = 1 << 30; //bytes of requests and results held by all connections at once
+
+    private final HuffmanCodec codec;
+    private final HuffmanDictionary dictionary; //compress with this code instead of counting, if not null
+    private final ExecutorService connections = connectionExecutor();
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT, true); //fair, so large requests are not starved
+
+    HuffmanServer(HuffmanCodec codec, HuffmanDictionary dictionary) {
+        this.codec = codec;
+        this.dictionary = dictionary;
+    }
+
+    //A virtual thread per task on JDK 21 and later, a cached pool of platform threads before
+    static ExecutorService connectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    //Serves connections to port on the loopback address until the process is stopped
+    void serve(int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+            System.out.println("Listening on " + server.getLocalSocketAddress());
+            while (true) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true); //responses are written whole, do not wait for more
+                connections.execute(() -> {
+                    try (socket) {
+                        handle(new BinaryIn(socket), new BinaryOut(socket));
+                    } catch (IOException | UncheckedIOException e) { //a write to the client failed
+                        System.out.println("Connection failed: " + e.getMessage());
+                    }
+                });
+            }
+        }
+    }
+
+    //Serves connections to the Unix domain socket at path until the process is stopped
+    void serve(Path path) throws IOException {
+        if (Files.exists(path) && !Files.isRegularFile(path) && !Files.isDirectory(path))
+            Files.delete(path); //left behind by a server that was killed
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(path));
+            path.toFile().deleteOnExit();
+            System.out.println("Listening on " + path);
+            while (true) {
+                SocketChannel channel = server.accept();
+                connections.execute(() -> {
+                    try (channel) {
+                        handle(new BinaryIn(Channels.newInputStream(channel)), new BinaryOut(Channels.newOutputStream(channel)));
+                    } catch (IOException | UncheckedIOException e) { //a write to the client failed
+                        System.out.println("Connection failed: " + e.getMessage());
+                    }
+                });
+            }
+        }
+    }
+
+    //Answers requests from in until it ends. A malformed request ends the connection.
+    void handle(BinaryIn in, BinaryOut out) {
+        try {
+            while (!in.isEmpty()) {
+                int operation = in.readByte() & 0xFF;
+                int length = in.readInt();
+                if (length < 0 || length > MAX_LENGTH) {
+                    respond(out, ERROR, ("Illegal request length " + length).getBytes(StandardCharsets.UTF_8));
+                    return; //the rest of the stream cannot be trusted
+                }
+                int reserved = reservation(operation, length);
+                inFlight.acquireUninterruptibly(reserved);
+                try {
+                    byte[] data = new byte[length];
+                    in.readBytes(data, 0, length);
+                    try {
+                        respond(out, OK, process(operation, data));
+                    } catch (IOException | IllegalArgumentException | BufferOverflowException e) {
+                        respond(out, ERROR, String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+                    }
+                } finally {
+                    inFlight.release(reserved);
+                }
+            }
+        } catch (NoSuchElementException e) { //the client went away in the middle of a request
+        }
+    }
+
+    /*
+    Bytes a request of length bytes holds until it is answered: its data and the largest
+    result it can have. Every decoded byte costs at least one bit, so a result is at most
+    8 times the encoded data, see process.
+     */
+    private int reservation(int operation, int length) {
+        long result = operation == COMPRESS ? codec.maxEncodedLength(length) : Math.min(8L * length, MAX_LENGTH);
+        return (int) Math.min(MAX_IN_FLIGHT, length + result);
+    }
+
+    private byte[] process(int operation, byte[] data) throws IOException {
+        if (operation == COMPRESS)
+            return dictionary != null ? codec.encode(data, dictionary) : codec.encode(data);
+        if (operation == DECOMPRESS) {
+            long length = HuffmanCodec.decodedLength(ByteBuffer.wrap(data));
+            if (length > MAX_LENGTH)
+                throw new IOException("Decoded data of " + length + " bytes is over the limit of " + MAX_LENGTH);
+            if (length > 8L * data.length) //more than its reservation, see reservation
+                throw new IOException("Decoded data of " + length + " bytes cannot come from " + data.length + " bytes");
+            return codec.decode(data);
+        }
+        throw new IllegalArgumentException("Unknown operation " + operation);
+    }
+
+    private static void respond(BinaryOut out, int status, byte[] result) {
+        out.write((byte) status);
+        out.write(result.length);
+        out.writeBits(result, 8L * result.length);
+        out.flush();
+    }
+}
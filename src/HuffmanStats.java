@@ -0,0 +1,221 @@
+/**
+ * Measurements of one encode or decode: time spent in each phase, bytes in and out, and
+ * how close the code came to the entropy of the input. Written as a JSON line with
+ * -stats, and recorded as a HuffmanEvent when Flight Recorder is running.
+ */
+public final class HuffmanStats {
+    public enum Phase {
+        HISTOGRAM, //counting the input
+        BUILD,     //code lengths, canonical code and decode tables
+        ENCODE,
+        DECODE,
+        FLUSH      //block index, buffered output and closing files
+    }
+
+    private final String operation;
+    private final String file;
+    private final long[] nanos = new long[Phase.values().length];
+    private final long start = System.nanoTime();
+    private final HuffmanEvent event = new HuffmanEvent();
+    private long phaseStart = start;
+    private long totalNanos;
+    private long bytesIn;
+    private long bytesOut;
+    private long symbols; //bytes of original data
+    private long payloadBits; //bits of code, without headers, padding and checksums
+    private long storedBytes; //bytes of original data in stored blocks, which were not coded
+    private double entropy = Double.NaN;
+    private boolean pipelined; //coded through a Pipeline, whose waits follow
+    private long readerWaitNanos; //reader waiting for a free buffer, the coders or writer are behind
+    private long coderWaitNanos; //coders waiting for input, summed over coders, the reader is behind
+    private long writerWaitNanos; //writer waiting for the next block, the coders are behind
+
+    HuffmanStats(String operation, String file) {
+        this.operation = operation;
+        this.file = file;
+        event.begin();
+    }
+
+    //Adds the time since the previous call, or since the start, to phase
+    void phase(Phase phase) {
+        long now = System.nanoTime();
+        nanos[phase.ordinal()] += now - phaseStart;
+        phaseStart = now;
+    }
+
+    void bytes(long in, long out) {
+        bytesIn = in;
+        bytesOut = out;
+    }
+
+    void payload(long symbols, long bits) {
+        this.symbols = symbols;
+        this.payloadBits = bits;
+    }
+
+    void stored(long bytes) {
+        storedBytes = bytes;
+    }
+
+    //Adds the time the stages of pipeline spent waiting for each other
+    void pipeline(Pipeline pipeline) {
+        pipelined = true;
+        readerWaitNanos += pipeline.readerWaitNanos();
+        coderWaitNanos += pipeline.coderWaitNanos();
+        writerWaitNanos += pipeline.writerWaitNanos();
+    }
+
+    void frequency(long[] frequency) {
+        entropy = entropy(frequency);
+    }
+
+    //Shannon entropy of a byte distribution in bits per byte
+    static double entropy(long[] frequency) {
+        long total = 0;
+        for (long f : frequency)
+            total += f;
+        double entropy = 0;
+        for (long f : frequency) {
+            if (f > 0) {
+                double p = (double) f / total;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+
+    //Stops the clock and records the event
+    void finish() {
+        totalNanos = System.nanoTime() - start;
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.file = file;
+            event.bytesIn = bytesIn;
+            event.bytesOut = bytesOut;
+            event.histogram = nanos(Phase.HISTOGRAM);
+            event.build = nanos(Phase.BUILD);
+            event.encode = nanos(Phase.ENCODE);
+            event.decode = nanos(Phase.DECODE);
+            event.flush = nanos(Phase.FLUSH);
+            event.entropy = entropy;
+            event.bitsPerSymbol = bitsPerSymbol();
+            event.storedBytes = storedBytes;
+            event.readerWait = readerWaitNanos;
+            event.coderWait = coderWaitNanos;
+            event.writerWait = writerWaitNanos;
+            event.commit();
+        }
+    }
+
+    public String operation() {
+        return operation;
+    }
+
+    public long bytesIn() {
+        return bytesIn;
+    }
+
+    public long bytesOut() {
+        return bytesOut;
+    }
+
+    public long storedBytes() {
+        return storedBytes;
+    }
+
+    //Output bytes per input byte
+    public double ratio() {
+        return bytesIn == 0 ? Double.NaN : (double) bytesOut / bytesIn;
+    }
+
+    //Entropy of the input in bits per byte, NaN when not known (decoding)
+    public double entropy() {
+        return entropy;
+    }
+
+    //Code bits spent per byte of original data
+    public double bitsPerSymbol() {
+        return symbols == 0 ? Double.NaN : (double) payloadBits / symbols;
+    }
+
+    public long nanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    //Time the pipeline reader spent waiting for a free buffer, -1 without a pipeline
+    public long readerWaitNanos() {
+        return pipelined ? readerWaitNanos : -1;
+    }
+
+    //Time the pipeline coders spent waiting for input, summed over coders, -1 without a pipeline
+    public long coderWaitNanos() {
+        return pipelined ? coderWaitNanos : -1;
+    }
+
+    //Time the pipeline writer spent waiting for the next block to be coded, -1 without a pipeline
+    public long writerWaitNanos() {
+        return pipelined ? writerWaitNanos : -1;
+    }
+
+    public long totalNanos() {
+        return totalNanos;
+    }
+
+    //Original data per second of the whole operation
+    public double megabytesPerSecond() {
+        return totalNanos == 0 ? Double.NaN : symbols / 1e6 / (totalNanos / 1e9);
+    }
+
+    //One line of JSON, unknown numbers are null
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"operation\":");
+        string(json, operation);
+        json.append(",\"file\":");
+        string(json, file);
+        json.append(",\"bytesIn\":").append(bytesIn);
+        json.append(",\"bytesOut\":").append(bytesOut);
+        json.append(",\"ratio\":");
+        number(json, ratio());
+        json.append(",\"entropyBitsPerSymbol\":");
+        number(json, entropy);
+        json.append(",\"bitsPerSymbol\":");
+        number(json, bitsPerSymbol());
+        json.append(",\"storedBytes\":").append(storedBytes);
+        for (Phase phase : Phase.values())
+            json.append(",\"").append(phase.name().toLowerCase()).append("Nanos\":").append(nanos(phase));
+        if (pipelined) {
+            json.append(",\"readerWaitNanos\":").append(readerWaitNanos);
+            json.append(",\"coderWaitNanos\":").append(coderWaitNanos);
+            json.append(",\"writerWaitNanos\":").append(writerWaitNanos);
+        }
+        json.append(",\"totalNanos\":").append(totalNanos);
+        json.append(",\"megabytesPerSecond\":");
+        number(json, megabytesPerSecond());
+        return json.append('}').toString();
+    }
+
+    private static void number(StringBuilder json, double x) {
+        if (Double.isNaN(x) || Double.isInfinite(x))
+            json.append("null");
+        else
+            json.append(Math.round(x * 1e4) / 1e4);
+    }
+
+    private static void string(StringBuilder json, String s) {
+        if (s == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\')
+                json.append('\\').append(c);
+            else if (c < 0x20)
+                json.append(String.format("\\u%04x", (int) c));
+            else
+                json.append(c);
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,35 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file mapped into memory in windows of at most 1 GB, since a single mapping cannot
+ * exceed 2 GB. Windows are a whole number of blocks long, so a block never spans two of
+ * them and reading a block is a slice of the page cache without any copy or system call.
+ */
+class MappedFile {
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    private final ByteBuffer[] windows;
+    private final long windowSize;
+    private final long size;
+
+    MappedFile(FileChannel channel, int blockSize) throws IOException {
+        size = channel.size();
+        windowSize = Math.max(blockSize, WINDOW_SIZE / blockSize * blockSize);
+        windows = new ByteBuffer[(int) ((size + windowSize - 1) / windowSize)];
+        for (int i = 0; i < windows.length; i++) {
+            long start = i * windowSize;
+            windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    //The length bytes at position, which must lie in one block
+    ByteBuffer block(long position, int length) {
+        return windows[(int) (position / windowSize)].slice((int) (position % windowSize), length);
+    }
+}
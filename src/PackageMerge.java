@@ -0,0 +1,77 @@
+import java.util.Arrays;
+
+/**
+ * Optimal code lengths no longer than a given maximum, found with the package-merge
+ * algorithm (Larmore and Hirschberg).
+ *
+ * Every level holds the symbols sorted by frequency merged with "packages", each the sum
+ * of a pair of adjacent items from the level below. The 2n - 2 cheapest items of the top
+ * level are selected; a symbol's code length is the number of levels on which it is
+ * selected, either directly or inside a selected package.
+ */
+class PackageMerge {
+    /**
+     * @param frequency frequency of each symbol, 0 if the symbol does not occur
+     * @param maxLength longest code allowed, large enough for 2^maxLength codes
+     * @return code length of each symbol, 0 if the symbol does not occur
+     */
+    static int[] lengths(long[] frequency, int maxLength) {
+        int[] lengths = new int[frequency.length];
+        long[] sorted = new long[frequency.length]; //frequency << 8 | symbol, sorts by frequency
+        int n = 0;
+        for (int s = 0; s < frequency.length; s++) {
+            if (frequency[s] > 0)
+                sorted[n++] = (frequency[s] << 8) | s;
+        }
+        if (n == 0)
+            return lengths;
+        if (n == 1) {
+            lengths[(int) (sorted[0] & 0xFF)] = 1;
+            return lengths;
+        }
+        if (n > 1L << maxLength)
+            throw new IllegalArgumentException(n + " symbols do not fit in codes of " + maxLength + " bits");
+        Arrays.sort(sorted, 0, n);
+
+        //level 0 is the deepest, items are either a symbol or a package of two items from the level below
+        long[] weights = new long[2 * n];
+        long[] previous = new long[2 * n];
+        boolean[][] isPackage = new boolean[maxLength][2 * n];
+        int previousSize = 0;
+        for (int level = 0; level < maxLength; level++) {
+            int leaf = 0;
+            int pair = 0;
+            int count = 0;
+            while (leaf < n || pair + 1 < previousSize) {
+                long leafWeight = leaf < n ? sorted[leaf] >>> 8 : Long.MAX_VALUE;
+                long pairWeight = pair + 1 < previousSize ? previous[pair] + previous[pair + 1] : Long.MAX_VALUE;
+                if (leafWeight <= pairWeight) {
+                    weights[count++] = leafWeight;
+                    leaf++;
+                }
+                else {
+                    isPackage[level][count] = true;
+                    weights[count++] = pairWeight;
+                    pair += 2;
+                }
+            }
+            long[] t = previous; previous = weights; weights = t;
+            previousSize = count;
+        }
+
+        //walk down from the top, each selected package selects two items on the level below
+        int selected = 2 * n - 2;
+        for (int level = maxLength - 1; level >= 0 && selected > 0; level--) {
+            int packages = 0;
+            for (int i = 0; i < selected; i++) {
+                if (isPackage[level][i])
+                    packages++;
+            }
+            //symbols are merged in frequency order, so the selected ones are the cheapest
+            for (int leaf = 0; leaf < selected - packages; leaf++)
+                lengths[(int) (sorted[leaf] & 0xFF)]++;
+            selected = 2 * packages;
+        }
+        return lengths;
+    }
+}
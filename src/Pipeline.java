@@ -0,0 +1,199 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reader, coder and writer stages joined by bounded queues, so reading the next blocks,
+ * coding the current ones and writing finished ones overlap instead of taking turns.
+ * One thread reads, several code and the calling thread writes, in block order.
+ *
+ * The stages pass around depth slots, each with an input and an output buffer that are
+ * allocated once and reused for every block. When all slots are in use the reader waits,
+ * which holds back a disk that is faster than the coders; a coder without input waits
+ * for the reader; the writer waits for the coder of the next block. The time each stage
+ * spends waiting is kept, so the stage that limits throughput can be told from the
+ * others (see HuffmanStats).
+ */
+class Pipeline {
+    interface Reader {
+        //Fills slot.input for the next block, false if there is none
+        boolean read(Slot slot) throws IOException;
+    }
+
+    interface Stage {
+        void run(Slot slot) throws IOException;
+    }
+
+    static class Slot {
+        final ByteBuffer input;
+        final ByteBuffer output;
+        long block; //number of the block in the slot, from 0
+        long bits; //for the coder to pass on to the writer
+        private final Semaphore coded = new Semaphore(0);
+        private Throwable error; //of the reader or coder, thrown by the writer
+        private boolean end; //no block, the reader is done
+
+        Slot(int inputSize, int outputSize) {
+            input = ByteBuffer.allocate(inputSize);
+            output = ByteBuffer.allocate(outputSize);
+        }
+    }
+
+    private final int depth;
+    private final int coders;
+    private final int inputSize;
+    private final int outputSize;
+    private final AtomicLong readerWait = new AtomicLong(); //for a free slot
+    private final AtomicLong coderWait = new AtomicLong(); //for a block to code, summed over coders
+    private final AtomicLong writerWait = new AtomicLong(); //for the next block to be coded
+
+    /**
+     * @param depth      slots, so blocks read, being coded or waiting to be written at once
+     * @param coders     coding threads
+     * @param inputSize  bytes of every input buffer
+     * @param outputSize bytes of every output buffer
+     */
+    Pipeline(int depth, int coders, int inputSize, int outputSize) {
+        if (depth < 1)
+            throw new IllegalArgumentException("Illegal pipeline depth " + depth);
+        this.depth = depth;
+        this.coders = coders;
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+    }
+
+    /**
+     * Runs reader, coder and writer over every block until the reader has no more, and
+     * returns when the last block has been written.
+     *
+     * @throws IOException the first failure of any stage, after which the others stop
+     */
+    void run(Reader reader, Stage coder, Stage writer) throws IOException {
+        BlockingQueue<Slot> free = new ArrayBlockingQueue<>(depth);
+        BlockingQueue<Slot> toCode = new ArrayBlockingQueue<>(depth + coders); //room for an end marker per coder
+        BlockingQueue<Slot> toWrite = new ArrayBlockingQueue<>(depth + 1);
+        for (int i = 0; i < depth; i++)
+            free.add(new Slot(inputSize, outputSize));
+
+        ExecutorService threads = Executors.newFixedThreadPool(coders + 1, runnable -> {
+            Thread thread = new Thread(runnable, "pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            threads.execute(() -> read(reader, free, toCode, toWrite));
+            for (int i = 0; i < coders; i++)
+                threads.execute(() -> code(coder, toCode));
+
+            while (true) {
+                Slot slot = take(toWrite);
+                long start = System.nanoTime();
+                slot.coded.acquireUninterruptibly();
+                writerWait.addAndGet(System.nanoTime() - start);
+                if (slot.error != null)
+                    throw slot.error instanceof IOException ? (IOException) slot.error : new IOException(slot.error);
+                if (slot.end)
+                    return;
+                writer.run(slot);
+                free.add(slot);
+            }
+        } finally {
+            threads.shutdownNow(); //a reader waiting for a slot that will never come back
+        }
+    }
+
+    private void read(Reader reader, BlockingQueue<Slot> free, BlockingQueue<Slot> toCode, BlockingQueue<Slot> toWrite) {
+        Slot end = new Slot(0, 0);
+        end.end = true;
+        try {
+            for (long block = 0; ; block++) {
+                long start = System.nanoTime();
+                Slot slot = free.take();
+                readerWait.addAndGet(System.nanoTime() - start);
+                slot.block = block;
+                slot.input.clear();
+                slot.output.clear();
+                if (!reader.read(slot)) {
+                    free.add(slot);
+                    break;
+                }
+                toWrite.put(slot); //before it can be coded, so blocks are written in order
+                toCode.put(slot);
+            }
+        } catch (IOException | RuntimeException e) {
+            end.error = e;
+        } catch (InterruptedException e) {
+            return; //the writer gave up
+        }
+        end.coded.release();
+        toWrite.add(end);
+        for (int i = 0; i < coders; i++)
+            toCode.add(end);
+    }
+
+    private void code(Stage coder, BlockingQueue<Slot> toCode) {
+        while (true) {
+            Slot slot;
+            try {
+                long start = System.nanoTime();
+                slot = toCode.take();
+                coderWait.addAndGet(System.nanoTime() - start);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (slot.end)
+                return;
+            try {
+                coder.run(slot);
+            } catch (IOException | RuntimeException e) {
+                slot.error = e;
+            }
+            slot.coded.release();
+        }
+    }
+
+    private static Slot take(BlockingQueue<Slot> queue) throws IOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the pipeline");
+        }
+    }
+
+    long readerWaitNanos() {
+        return readerWait.get();
+    }
+
+    long coderWaitNanos() {
+        return coderWait.get();
+    }
+
+    long writerWaitNanos() {
+        return writerWait.get();
+    }
+
+    //Reads length bytes at position of channel into the start of buffer
+    static void readFully(FileChannel channel, long position, ByteBuffer buffer, int length) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("File ended at " + (position + buffer.position()));
+        }
+        buffer.flip();
+    }
+
+    //Writes the whole of buffer to channel at its position
+    static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+}